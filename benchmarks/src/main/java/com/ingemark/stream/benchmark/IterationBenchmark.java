@@ -0,0 +1,65 @@
+package com.ingemark.stream.benchmark;
+
+import com.ingemark.stream.service.SourceService;
+import com.ingemark.stream.util.RandomIntSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways {@link SourceService} consumes a {@link RandomIntSource}. Each
+ * invocation wraps the same pre-generated data into a fresh source, so only the
+ * iteration itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IterationBenchmark {
+    @Param({"1000", "100000"})
+    private int size;
+    private int[] data;
+
+    @Setup
+    public void setup() {
+        data = new Random(42).ints(size, 0, 10).toArray();
+    }
+
+    @Benchmark
+    public long whileIteration() {
+        return SourceService.whileIteration(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long forIteration() {
+        return SourceService.forIteration(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long enhancedForLoop() {
+        return SourceService.enhancedForLoop(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long iterableStream() {
+        return SourceService.iterableStream(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long stream() {
+        return SourceService.stream(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long streamEnhanced() {
+        return SourceService.streamEnhanced(new RandomIntSource(data));
+    }
+
+    @Benchmark
+    public long intStream() {
+        return SourceService.intStream(new RandomIntSource(data));
+    }
+}
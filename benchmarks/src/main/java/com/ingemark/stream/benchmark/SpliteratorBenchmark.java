@@ -0,0 +1,145 @@
+package com.ingemark.stream.benchmark;
+
+import com.ingemark.stream.spliterators.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.ingemark.stream.spliterators.FixedBatchSpliteratorBase.DEFAULT_TARGET_BATCH_MILLIS;
+import static com.ingemark.stream.spliterators.FixedBatchSpliteratorBase.MAX_ADAPTIVE_BATCH_SIZE;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * Measures the spliterators of this project over sequential sources of the given size,
+ * once as a sequential stream and once in parallel. The parallel benchmarks take the
+ * {@link Batching} state, which wraps each stream into a {@link FixedBatchSpliterator} of
+ * the given batch size; batch size {@code 0} selects the adaptive batch size. Keeping the
+ * batch size out of the sequential benchmarks spares runs in which it has no effect. The
+ * {@code cpuTokens} parameter sets the simulated downstream work per element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpliteratorBenchmark {
+    private static final Pattern WORD = Pattern.compile("\\w+");
+
+    @Param({"10000", "1000000"})
+    private int size;
+    @Param({"10"})
+    private int cpuTokens;
+
+    private List<Integer> values;
+    private List<Integer> sortedKeys;
+    private String text;
+
+    @State(Scope.Benchmark)
+    public static class Batching {
+        @Param({"16", "64", "256", "1024", "0"})
+        private int batchSize;
+
+        <T> Stream<T> parallel(Stream<T> in) {
+            if (batchSize > 0) return FixedBatchSpliterator.withBatchSize(in, batchSize);
+            return FixedBatchSpliterator.withAdaptiveBatchSize(in, DEFAULT_TARGET_BATCH_MILLIS, 1, MAX_ADAPTIVE_BATCH_SIZE);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final Random rnd = new Random(42);
+        values = rnd.ints(size, 0, 1000).boxed().collect(Collectors.toList());
+        sortedKeys = IntStream.range(0, size).map(i -> i / 8).boxed().collect(Collectors.toList());
+        text = rnd.ints(size, 0, 26)
+                  .mapToObj(i -> (char) ('a' + i) + (i % 5 == 0 ? " " : ""))
+                  .collect(Collectors.joining());
+    }
+
+    @Benchmark
+    public long fixedBatch() {
+        return sequentialSource(values).mapToLong(this::work).sum();
+    }
+
+    @Benchmark
+    public long fixedBatchParallel(Batching b) {
+        return b.parallel(sequentialSource(values)).mapToLong(this::work).sum();
+    }
+
+    @Benchmark
+    public long partitioning() {
+        return PartitioningSpliterator.partition(sequentialSource(values), 20)
+                .mapToLong(p -> work(p.size())).sum();
+    }
+
+    @Benchmark
+    public long partitioningParallel(Batching b) {
+        return b.parallel(PartitioningSpliterator.partition(sequentialSource(values), 20))
+                .mapToLong(p -> work(p.size())).sum();
+    }
+
+    @Benchmark
+    public long partitionBy() {
+        return PartitionBySpliterator.partitionBy(i -> i, sequentialSource(sortedKeys))
+                .mapToLong(p -> work(p.size())).sum();
+    }
+
+    /**
+     * Partitions the batches of the source while grouping them, rather than grouping the
+     * whole source first and batching the partitions as {@link #partitionByParallel}.
+     */
+    @Benchmark
+    public long parallelPartitionBy(Batching b) {
+        return PartitionBySpliterator.parallelPartitionBy(i -> i, b.parallel(sequentialSource(sortedKeys)))
+                .mapToLong(p -> work(p.size())).sum();
+    }
+
+    @Benchmark
+    public long partitionByParallel(Batching b) {
+        return b.parallel(PartitionBySpliterator.partitionBy(i -> i, sequentialSource(sortedKeys)))
+                .mapToLong(p -> work(p.size())).sum();
+    }
+
+    @Benchmark
+    public long zipping() {
+        return ZippingSpliterator.zip(sequentialSource(values), sequentialSource(sortedKeys))
+                .mapToLong(t -> work((Integer) t[0] + (Integer) t[1])).sum();
+    }
+
+    @Benchmark
+    public long zippingParallel(Batching b) {
+        return b.parallel(ZippingSpliterator.zip(sequentialSource(values), sequentialSource(sortedKeys)))
+                .mapToLong(t -> work((Integer) t[0] + (Integer) t[1])).sum();
+    }
+
+    @Benchmark
+    public long regex() {
+        return RegexSpliterator.resultStream(new RegexSpliterator(WORD, text))
+                .mapToLong(s -> work(s.length())).sum();
+    }
+
+    @Benchmark
+    public long regexParallel(Batching b) {
+        return b.parallel(RegexSpliterator.resultStream(new RegexSpliterator(WORD, text)))
+                .mapToLong(s -> work(s.length())).sum();
+    }
+
+    private long work(int value) {
+        Blackhole.consumeCPU(cpuTokens);
+        return value;
+    }
+
+    private static <T> Stream<T> sequentialSource(List<T> list) {
+        return stream(spliteratorUnknownSize(list.iterator(), ORDERED), false);
+    }
+}
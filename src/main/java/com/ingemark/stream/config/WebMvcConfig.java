@@ -1,38 +1,82 @@
 package com.ingemark.stream.config;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.ingemark.stream.controller.ConfigController;
+import com.ingemark.stream.metrics.MetricsRegistry;
+import com.ingemark.stream.service.ConfigCache;
+import com.ingemark.stream.stream.AsyncStreamReturnValueHandler;
+import com.ingemark.stream.stream.CborHttpMessageConverter;
 import com.ingemark.stream.stream.JacksonStreamSerializer;
+import com.ingemark.stream.stream.SmileHttpMessageConverter;
+import com.ingemark.stream.stream.StatelessSessionArgumentResolver;
+import com.ingemark.stream.stream.StreamResourcesInterceptor;
+import com.ingemark.stream.stream.StreamWriteConfig;
 import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.orm.hibernate5.support.OpenSessionInViewInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
 import org.springframework.web.multipart.support.StandardServletMultipartResolver;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
 import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.fasterxml.jackson.core.Version.unknownVersion;
 import static java.util.Collections.singletonList;
 
 @Configuration
-@ComponentScan(basePackageClasses = {ConfigController.class})
+@ComponentScan(basePackageClasses = {ConfigController.class, ConfigCache.class, MetricsRegistry.class})
 @Import({DataConfig.class})
 public class WebMvcConfig extends WebMvcConfigurationSupport {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
     @Autowired
     private OpenSessionInViewInterceptor openSessionInViewInterceptor;
+    @Autowired
+    private SessionFactory sf;
+    @Autowired
+    private DataSource dataSource;
+    @Value("${stream.flushEveryElements:0}")
+    private int flushEveryElements;
+    @Value("${stream.flushEveryBytes:65536}")
+    private int flushEveryBytes;
+    @Value("${stream.flushEveryMillis:1000}")
+    private long flushEveryMillis;
+    @Value("${stream.parallelBatchSize:0}")
+    private int parallelBatchSize;
+    @Value("${stream.parallelWindow:16}")
+    private int parallelWindow;
+    @Value("${stream.asyncThreads:8}")
+    private int asyncThreads;
+    @Value("${stream.asyncChunkSize:8192}")
+    private int asyncChunkSize;
+    @Value("${stream.asyncTimeoutMillis:600000}")
+    private long asyncTimeoutMillis;
+    @Value("${stream.asyncQueueCapacity:1024}")
+    private int asyncQueueCapacity;
 
     @Bean
     public static PropertySourcesPlaceholderConfigurer placeHolderConfigurer() {
@@ -42,6 +86,12 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
     @Override
     protected void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
         converters.add(new MappingJackson2HttpMessageConverter(mapper()));
+        final MappingJackson2HttpMessageConverter ndjson =
+                new MappingJackson2HttpMessageConverter(mapper(new JsonFactory(), streamWriteConfig().withNdjson(true)));
+        ndjson.setSupportedMediaTypes(singletonList(APPLICATION_NDJSON));
+        converters.add(ndjson);
+        converters.add(new SmileHttpMessageConverter(mapper(new SmileFactory(), streamWriteConfig())));
+        converters.add(new CborHttpMessageConverter(mapper(new CBORFactory(), streamWriteConfig())));
         addDefaultHttpMessageConverters(converters);
     }
 
@@ -49,6 +99,39 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
     protected void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LocaleChangeInterceptor());
         registry.addWebRequestInterceptor(openSessionInViewInterceptor);
+        registry.addInterceptor(new StreamResourcesInterceptor());
+    }
+
+    @Override
+    protected void addArgumentResolvers(List<HandlerMethodArgumentResolver> argumentResolvers) {
+        argumentResolvers.add(new StatelessSessionArgumentResolver(sf, dataSource));
+    }
+
+    /**
+     * Puts the asynchronous {@code Stream} handler ahead of the built-in return value
+     * handlers, which the adapter only creates once it is initialized.
+     */
+    @Bean
+    public SmartInitializingSingleton asyncStreamReturnValueHandlerRegistrar() {
+        return () -> {
+            final RequestMappingHandlerAdapter adapter = requestMappingHandlerAdapter();
+            final List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+            handlers.add(new AsyncStreamReturnValueHandler(adapter.getMessageConverters(),
+                    mvcContentNegotiationManager(), streamWriteExecutor(), asyncChunkSize, asyncTimeoutMillis));
+            handlers.addAll(adapter.getReturnValueHandlers());
+            adapter.setReturnValueHandlers(handlers);
+        };
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor streamWriteExecutor() {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(asyncThreads);
+        executor.setMaxPoolSize(asyncThreads);
+        // a bounded queue rejects work under overload, which answers with status 503
+        executor.setQueueCapacity(asyncQueueCapacity);
+        executor.setThreadNamePrefix("stream-writer-");
+        return executor;
     }
 
     @Bean
@@ -65,12 +148,25 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
         return tor;
     }
 
+    @Bean
+    public StreamWriteConfig streamWriteConfig() {
+        return StreamWriteConfig.DEFAULT
+                .withFlushEveryElements(flushEveryElements)
+                .withFlushEveryBytes(flushEveryBytes)
+                .withFlushEveryMillis(flushEveryMillis)
+                .withParallelBatches(parallelBatchSize, parallelWindow);
+    }
+
     @Bean
     public ObjectMapper mapper() {
-        final ObjectMapper om = new ObjectMapper();
+        return mapper(new JsonFactory(), streamWriteConfig());
+    }
+
+    private static ObjectMapper mapper(JsonFactory factory, StreamWriteConfig config) {
+        final ObjectMapper om = new ObjectMapper(factory);
         om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        om.registerModule(new SimpleModule("Streams API", unknownVersion(), singletonList(new JacksonStreamSerializer())));
+        om.registerModule(new SimpleModule("Streams API", unknownVersion(), singletonList(new JacksonStreamSerializer(config))));
         om.registerModule(new JavaTimeModule());
         return om;
     }
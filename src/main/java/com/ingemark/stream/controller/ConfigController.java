@@ -1,43 +1,100 @@
 package com.ingemark.stream.controller;
 
-import org.hibernate.SessionFactory;
+import com.ingemark.stream.metrics.MetricsRegistry;
+import com.ingemark.stream.service.ConfigCache;
+import com.ingemark.stream.service.ConfigImporter;
+import com.ingemark.stream.service.ConfigSnapshot;
+import com.ingemark.stream.spliterators.InstrumentedSpliterator;
+import com.ingemark.stream.spliterators.ResultSetSpliterator;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static com.ingemark.stream.spliterators.ScrollableResultsSpliterator.resultStream;
+import static com.ingemark.stream.config.WebMvcConfig.APPLICATION_NDJSON_VALUE;
+import static java.util.Collections.singletonMap;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.MULTIPART_FORM_DATA_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 @RestController
 public class ConfigController {
     @Autowired
-    private SessionFactory sf;
-
-//    @RequestMapping(value = "/config", method = GET)
-//    public Stream<ConfigDto> good() {
-//        final Query q = sf.getCurrentSession().createQuery("select new " + ConfigDto.class.getName() + "(id, key,value) from Config");
-//        return resultStream(ConfigDto.class, q);
-//    }
-
-//    @RequestMapping(value = "/config", method = GET)
-//    public Stream<Config> bad() {
-//        return resultStream(Config.class, sf.getCurrentSession().createQuery("from Config"));
-//    }
-
-//    @RequestMapping(value = "/config", method = GET)
-//    public Stream<Config> stillBad() {
-//        return resultStream(Config.class, sf.openStatelessSession().createQuery("from Config"));
-//    }
-
-//    @RequestMapping(value = "/config", method = GET)
-//    public void stillBad() {
-//        sf.getCurrentSession().doWork(connection -> {
-//            resultStream(Config.class, sf.openStatelessSession(connection).createQuery("from Config")); // do stuff - writer.write, outstream.write?
-//        });
-//    }
-
-//    @RequestMapping(value = "/config", method = GET)
-//    @Transactional(readOnly = true)
-//    public Stream<ConfigDto> notOK() {
-//        final Query q = sf.getCurrentSession().createQuery("select new " + ConfigDto.class.getName() + "(id, key,value) from Config");
-//        return resultStream(ConfigDto.class, q);
-//    }
-
-    // inside transaction? NO - use good, YES - use good or stillBad
+    private ConfigCache configCache;
+    @Autowired
+    private ConfigImporter configImporter;
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+    @Value("${config.exportFetchSize:1000}")
+    private int exportFetchSize;
+    @Value("${metrics.instrumentExports:false}")
+    private boolean instrumentExports;
+
+    /**
+     * Serves the configuration as a map of keys to values from the in-memory snapshot.
+     * A client which sends the ETag of the current snapshot in {@code If-None-Match}
+     * gets a 304 response.
+     */
+    @RequestMapping(value = "/config", method = GET)
+    public Map<String, String> config(WebRequest request) {
+        final ConfigSnapshot snapshot = configCache.snapshot();
+        return request.checkNotModified(snapshot.etag()) ? null : snapshot.values();
+    }
+
+    /**
+     * Streams all configuration entries from the database. The session runs on a
+     * connection of its own, which is released once the response has been written.
+     */
+    @RequestMapping(value = "/config/export", method = GET)
+    public Stream<ConfigDto> export(StatelessSession session) {
+        return instrumented("config.export", resultStream(ConfigDto.class, session.createQuery(
+                "select new " + ConfigDto.class.getName() + "(id, key, value) from Config")));
+    }
+
+    /**
+     * Streams all configuration entries with plain SQL, bypassing Hibernate's result
+     * processing. The query runs on the connection of the request's stateless session.
+     */
+    @RequestMapping(value = "/config/export/jdbc", method = GET)
+    public Stream<ConfigDto> exportJdbc(StatelessSession session) {
+        return instrumented("config.export.jdbc", ResultSetSpliterator.resultStream(ConfigDto.class,
+                ((SessionImplementor) session).connection(), exportFetchSize, "select id_, key_, value_ from config_"));
+    }
+
+    /**
+     * Imports configuration entries from a request body holding either a JSON array or
+     * NDJSON. Responds with the number of imported entries.
+     */
+    @RequestMapping(value = "/config/import", method = POST,
+            consumes = {APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public Map<String, Long> importConfig(InputStream body) throws IOException {
+        return singletonMap("imported", configImporter.importFrom(body));
+    }
+
+    /**
+     * Imports configuration entries from a JSON or NDJSON file uploaded as the
+     * {@code file} part of a multipart request.
+     */
+    @RequestMapping(value = "/config/import", method = POST, consumes = MULTIPART_FORM_DATA_VALUE)
+    public Map<String, Long> importConfig(@RequestParam("file") MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return singletonMap("imported", configImporter.importFrom(in));
+        }
+    }
+
+    private <T> Stream<T> instrumented(String name, Stream<T> stream) {
+        return instrumentExports ? InstrumentedSpliterator.instrument(stream, metricsRegistry.spliterator(name)) : stream;
+    }
 }
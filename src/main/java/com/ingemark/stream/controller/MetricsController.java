@@ -0,0 +1,26 @@
+package com.ingemark.stream.controller;
+
+import com.ingemark.stream.metrics.MetricsRegistry;
+import com.ingemark.stream.metrics.SpliteratorMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+@RestController
+public class MetricsController {
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Serves the metrics of all instrumented spliterators by name, the same as exposed
+     * over JMX.
+     */
+    @RequestMapping(value = "/metrics/spliterators", method = GET)
+    public Map<String, SpliteratorMetrics> spliterators() {
+        return metricsRegistry.spliterators();
+    }
+}
@@ -0,0 +1,83 @@
+package com.ingemark.stream.metrics;
+
+/**
+ * An immutable copy of the values recorded by a {@link StripedHistogram}. Percentiles
+ * are reported as the upper bound of the bucket holding them, capped at the maximum
+ * recorded value.
+ */
+public final class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long min, long max) {
+        long count = 0;
+        for (long c : counts) count += c;
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.min = count > 0 ? min : 0;
+        this.max = count > 0 ? max : 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    public long getP50() {
+        return percentile(50);
+    }
+
+    public long getP90() {
+        return percentile(90);
+    }
+
+    public long getP99() {
+        return percentile(99);
+    }
+
+    public long getP999() {
+        return percentile(99.9);
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values
+     * lie.
+     */
+    public long percentile(double percent) {
+        if (percent < 0 || percent > 100) throw new IllegalArgumentException(
+                "Percentile must be between 0 and 100, but was " + percent);
+        if (count == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, StripedHistogram.upperBound(i));
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " min=" + min + " p50=" + getP50() + " p90=" + getP90() + " p99=" + getP99()
+                + " p99.9=" + getP999() + " max=" + max;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ingemark.stream.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR event committed by {@link LatencyRecorder} for each reporting interval. Only
+ * loaded when JFR is available, and only compiled on JDK 11 and later, whose
+ * {@code jdk.jfr} API it uses; see the {@code no-jfr} profile of the build.
+ */
+@Name("com.ingemark.stream.Latency")
+@Label("Latency")
+@Category("Stream")
+@Description("Latency percentiles of a LatencyRecorder over one reporting interval")
+class JfrLatencyEvent extends Event {
+    @Label("Recorder")
+    String recorder;
+    @Label("Samples")
+    long count;
+    @Label("Interval")
+    @Timespan
+    long interval;
+    @Label("50th Percentile")
+    @Timespan
+    long p50;
+    @Label("90th Percentile")
+    @Timespan
+    long p90;
+    @Label("99th Percentile")
+    @Timespan
+    long p99;
+    @Label("99.9th Percentile")
+    @Timespan
+    long p999;
+    @Label("Maximum")
+    @Timespan
+    long max;
+
+    static void emit(String recorder, HistogramSnapshot s, long intervalNanos) {
+        final JfrLatencyEvent e = new JfrLatencyEvent();
+        if (!e.shouldCommit()) return;
+        e.recorder = recorder;
+        e.count = s.getCount();
+        e.interval = intervalNanos;
+        e.p50 = s.getP50();
+        e.p90 = s.getP90();
+        e.p99 = s.getP99();
+        e.p999 = s.getP999();
+        e.max = s.getMax();
+        e.commit();
+    }
+}
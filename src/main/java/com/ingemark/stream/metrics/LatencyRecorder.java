@@ -0,0 +1,160 @@
+package com.ingemark.stream.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Records latencies on hot paths, such as a per-element stage of a stream, and
+ * periodically reports their throughput and percentiles.
+ * <p/>
+ * Samples go into a {@link StripedHistogram}, so recording one takes a few uncontended
+ * atomic updates and allocates nothing. Every {@code reportMillis} the histogram is
+ * snapshotted and reset, and the interval is logged at INFO level, unless it recorded
+ * nothing. With JFR enabled, each report is also committed as a
+ * {@code com.ingemark.stream.Latency} event, one per interval rather than per sample.
+ * The event class is only compiled on JDK 11 and later, so it is looked up at runtime;
+ * when it is missing, latencies are only logged.
+ * <p/>
+ * Typical use around a stage:
+ * <pre>
+ * final long start = recorder.start();
+ * ...
+ * recorder.stop(start);
+ * </pre>
+ */
+public final class LatencyRecorder implements AutoCloseable {
+    public static final long DEFAULT_REPORT_MILLIS = 10_000;
+    private static final MethodHandle JFR_EMIT = jfrEmit();
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "latency-recorder");
+        t.setDaemon(true);
+        return t;
+    });
+    private final String name;
+    private final Logger log;
+    private final StripedHistogram histogram = new StripedHistogram();
+    private final boolean jfr;
+    private final ScheduledFuture<?> reporting;
+    private long intervalStart = System.nanoTime();
+
+    public LatencyRecorder(String name) {
+        this(name, LatencyRecorder.class);
+    }
+
+    public LatencyRecorder(String name, Class<?> c) {
+        this(name, c, DEFAULT_REPORT_MILLIS, false);
+    }
+
+    /**
+     * @param reportMillis the reporting interval; zero disables periodic reporting, leaving
+     *                     it to calls of {@link #report}.
+     * @param jfr          whether to commit each report as a JFR event. Ignored if the
+     *                     JVM does not support JFR.
+     */
+    public LatencyRecorder(String name, Class<?> c, long reportMillis, boolean jfr) {
+        if (reportMillis < 0) throw new IllegalArgumentException(
+                "Report interval must not be negative, but was " + reportMillis);
+        this.name = name;
+        this.log = LoggerFactory.getLogger(c);
+        this.jfr = jfr && JFR_EMIT != null;
+        if (jfr && JFR_EMIT == null) log.warn("JFR is not available, latencies of {} are only logged", name);
+        this.reporting = reportMillis > 0
+                ? scheduler.scheduleAtFixedRate(this::tryReport, reportMillis, reportMillis, MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * Returns the start time of a sample, to be passed to {@link #stop}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the given start time.
+     */
+    public void stop(long start) {
+        histogram.record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * Takes the samples recorded since the last report, logs them along with the
+     * throughput over the interval and returns them.
+     */
+    public synchronized HistogramSnapshot report() {
+        final long now = System.nanoTime();
+        final long intervalNanos = now - intervalStart;
+        intervalStart = now;
+        final HistogramSnapshot s = histogram.snapshotAndReset();
+        if (s.getCount() == 0) return s;
+        if (log.isInfoEnabled()) {
+            log.info("Latency {}: {} samples in {} ms ({}/s), p50 {}, p90 {}, p99 {}, p99.9 {}, max {}",
+                    name, s.getCount(), NANOSECONDS.toMillis(intervalNanos),
+                    intervalNanos > 0 ? (long) (s.getCount() * 1e9 / intervalNanos) : 0,
+                    duration(s.getP50()), duration(s.getP90()), duration(s.getP99()), duration(s.getP999()),
+                    duration(s.getMax()));
+        }
+        if (jfr) emitJfr(s, intervalNanos);
+        return s;
+    }
+
+    /**
+     * Stops periodic reporting, after reporting the samples recorded so far.
+     */
+    @Override
+    public void close() {
+        if (reporting != null) reporting.cancel(false);
+        tryReport();
+    }
+
+    private void tryReport() {
+        try {
+            report();
+        } catch (RuntimeException e) {
+            log.warn("Failed reporting latencies of " + name, e);
+        }
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 10_000) return nanos + " ns";
+        if (nanos < 10_000_000) return NANOSECONDS.toMicros(nanos) + " us";
+        return NANOSECONDS.toMillis(nanos) + " ms";
+    }
+
+    private void emitJfr(HistogramSnapshot s, long intervalNanos) {
+        try {
+            JFR_EMIT.invokeExact(name, s, intervalNanos);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Returns {@code JfrLatencyEvent.emit}, or null if the event class was not compiled
+     * or the JVM does not support JFR.
+     */
+    private static MethodHandle jfrEmit() {
+        try {
+            return MethodHandles.lookup().findStatic(Class.forName("com.ingemark.stream.metrics.JfrLatencyEvent"),
+                    "emit", MethodType.methodType(void.class, String.class, HistogramSnapshot.class, long.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ingemark.stream.metrics;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.ingemark.stream.util.Util.logger;
+
+/**
+ * Holds the {@link SpliteratorMetrics} of the application by name and registers each
+ * with the platform MBean server under
+ * {@code com.ingemark.stream:type=SpliteratorMetrics,name=<name>}.
+ */
+@Component
+public class MetricsRegistry implements DisposableBean {
+    private static final String DOMAIN = "com.ingemark.stream";
+    private final ConcurrentMap<String, SpliteratorMetrics> spliterators = new ConcurrentHashMap<>();
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    /**
+     * Returns the metrics registered under the given name, creating and registering them
+     * on first use.
+     */
+    public SpliteratorMetrics spliterator(String name) {
+        return spliterators.computeIfAbsent(name, n -> {
+            final SpliteratorMetrics metrics = new SpliteratorMetrics(n);
+            try {
+                final ObjectName objectName = objectName(n);
+                if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+                server.registerMBean(metrics, objectName);
+            } catch (JMException e) {
+                logger.warn("Failed registering the MBean of spliterator metrics " + n, e);
+            }
+            return metrics;
+        });
+    }
+
+    public Map<String, SpliteratorMetrics> spliterators() {
+        return new TreeMap<>(spliterators);
+    }
+
+    @Override
+    public void destroy() {
+        for (String name : spliterators.keySet()) {
+            try {
+                server.unregisterMBean(objectName(name));
+            } catch (JMException e) {
+                logger.warn("Failed unregistering the MBean of spliterator metrics " + name, e);
+            }
+        }
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=SpliteratorMetrics,name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,157 @@
+package com.ingemark.stream.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the traversals of one kind of spliterator, as recorded by
+ * {@code InstrumentedSpliterator}:
+ * <ul>
+ * <li>the number of traversals, that is, of instrumented streams;</li>
+ * <li>the number of splits, and the sizes of the split-off parts where known;</li>
+ * <li>the time taken by each {@code trySplit} call, which for sources buffering a batch
+ * on split, such as {@link com.ingemark.stream.spliterators.FixedBatchSpliteratorBase},
+ * covers fetching the whole batch;</li>
+ * <li>the time taken to fetch each element from the source, up to the point where it is
+ * handed downstream;</li>
+ * <li>the time taken by the downstream stages to process each element;</li>
+ * <li>the time taken by each {@code forEachRemaining} call, which covers the traversal of
+ * a whole part of a stream;</li>
+ * <li>the number of elements, in total and per thread, which shows how evenly the work
+ * is spread over the threads of a parallel stream. Only the first {@value #MAX_THREADS}
+ * threads are counted by name, the elements of any later ones are counted under
+ * {@value #OTHER_THREADS}, so short-lived threads such as those of a read-ahead cannot
+ * make the counts grow without bound;</li>
+ * <li>the time from the start of a traversal to its first element.</li>
+ * </ul>
+ * All metrics accumulate over the lifetime of the application.
+ */
+public final class SpliteratorMetrics implements SpliteratorMetricsMXBean {
+    static final int MAX_THREADS = 256;
+    static final String OTHER_THREADS = "other";
+    private final String name;
+    private final LongAdder traversals = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> elementsPerThread = new ConcurrentHashMap<>();
+    private final LongAdder otherThreadElements = new LongAdder();
+    private final StripedHistogram batchSizes = new StripedHistogram();
+    private final StripedHistogram splitNanos = new StripedHistogram();
+    private final StripedHistogram fetchNanos = new StripedHistogram();
+    private final StripedHistogram downstreamNanos = new StripedHistogram();
+    private final StripedHistogram bulkNanos = new StripedHistogram();
+    private final StripedHistogram firstElementNanos = new StripedHistogram();
+
+    public SpliteratorMetrics(String name) {
+        this.name = name;
+    }
+
+    public void traversalStarted() {
+        traversals.increment();
+    }
+
+    public void split(long size) {
+        splits.increment();
+        if (size >= 0) batchSizes.record(size);
+    }
+
+    /**
+     * Records a {@code trySplit} call, whether it split or not.
+     */
+    public void splitAttempted(long nanos) {
+        splitNanos.record(nanos);
+    }
+
+    public void fetched(long nanos) {
+        fetchNanos.record(nanos);
+    }
+
+    public void processedDownstream(long nanos) {
+        downstreamNanos.record(nanos);
+    }
+
+    public void traversedInBulk(long nanos) {
+        bulkNanos.record(nanos);
+    }
+
+    public void firstElement(long nanosSinceStart) {
+        firstElementNanos.record(nanosSinceStart);
+    }
+
+    /**
+     * Returns the counter of elements produced on the given thread, which the caller
+     * may keep for as long as it stays on that thread. Once {@value #MAX_THREADS} threads
+     * have been counted, threads not seen before share the counter of other threads; the
+     * limit may be overshot slightly by threads arriving at the same time.
+     */
+    public LongAdder elementCounter(Thread thread) {
+        final String key = thread.getName();
+        final LongAdder counter = elementsPerThread.get(key);
+        if (counter != null) return counter;
+        if (elementsPerThread.size() >= MAX_THREADS) return otherThreadElements;
+        return elementsPerThread.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getTraversals() {
+        return traversals.sum();
+    }
+
+    @Override
+    public long getSplits() {
+        return splits.sum();
+    }
+
+    @Override
+    public long getElements() {
+        long sum = otherThreadElements.sum();
+        for (LongAdder count : elementsPerThread.values()) sum += count.sum();
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getElementsPerThread() {
+        final Map<String, Long> counts = new TreeMap<>();
+        elementsPerThread.forEach((thread, count) -> counts.put(thread, count.sum()));
+        final long others = otherThreadElements.sum();
+        if (others > 0) counts.merge(OTHER_THREADS, others, Long::sum);
+        return counts;
+    }
+
+    @Override
+    public HistogramSnapshot getBatchSizes() {
+        return batchSizes.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSplitNanos() {
+        return splitNanos.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getFetchNanos() {
+        return fetchNanos.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getDownstreamNanos() {
+        return downstreamNanos.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getBulkNanos() {
+        return bulkNanos.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getFirstElementNanos() {
+        return firstElementNanos.snapshot();
+    }
+}
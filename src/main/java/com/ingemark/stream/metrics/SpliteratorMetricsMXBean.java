@@ -0,0 +1,30 @@
+package com.ingemark.stream.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link SpliteratorMetrics}. Latencies are in nanoseconds.
+ */
+public interface SpliteratorMetricsMXBean {
+    String getName();
+
+    long getTraversals();
+
+    long getSplits();
+
+    long getElements();
+
+    Map<String, Long> getElementsPerThread();
+
+    HistogramSnapshot getBatchSizes();
+
+    HistogramSnapshot getSplitNanos();
+
+    HistogramSnapshot getFetchNanos();
+
+    HistogramSnapshot getDownstreamNanos();
+
+    HistogramSnapshot getBulkNanos();
+
+    HistogramSnapshot getFirstElementNanos();
+}
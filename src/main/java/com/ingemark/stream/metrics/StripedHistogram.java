@@ -0,0 +1,107 @@
+package com.ingemark.stream.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative {@code long} values, cheap enough to record on
+ * hot paths from many threads.
+ * <p/>
+ * Values are counted in log-linear buckets: each power of two is divided into
+ * {@value #SUB_BUCKETS} buckets of equal width, so a bucket spans at most 12.5% of its
+ * lower bound and percentiles are reported to that precision. Values below
+ * {@value #SUB_BUCKETS} have buckets of their own.
+ * <p/>
+ * The bucket counts are kept in several stripes and each thread records into the stripe
+ * picked by its id, which spreads contention over the stripes. Recording a value
+ * allocates nothing.
+ */
+public final class StripedHistogram {
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final int DEFAULT_MAX_STRIPES = 16;
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    public StripedHistogram() {
+        this(Math.min(DEFAULT_MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two.
+     */
+    public StripedHistogram(int stripes) {
+        if (stripes <= 0) throw new IllegalArgumentException("Stripe count must be positive, but was " + stripes);
+        final int n = Integer.highestOneBit(stripes - 1) << 1;
+        this.stripeMask = Math.max(1, n) - 1;
+        this.counts = new AtomicLongArray((stripeMask + 1) * BUCKETS);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        counts.getAndIncrement(stripe() * BUCKETS + bucket(v));
+        sum.add(v);
+        min.accumulate(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Returns the values recorded so far. Values recorded concurrently with this call
+     * may or may not be included.
+     */
+    public HistogramSnapshot snapshot() {
+        final long[] merged = new long[BUCKETS];
+        for (int i = 0; i < counts.length(); i++) merged[i % BUCKETS] += counts.get(i);
+        return new HistogramSnapshot(merged, sum.sum(), min.get(), max.get());
+    }
+
+    /**
+     * Returns the values recorded since the last reset and resets the histogram. No
+     * value is lost or counted twice, but the sum, minimum and maximum of a value
+     * recorded concurrently with this call may be attributed to the other interval than
+     * its count.
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        final long[] merged = new long[BUCKETS];
+        for (int i = 0; i < counts.length(); i++) {
+            if (counts.get(i) != 0) merged[i % BUCKETS] += counts.getAndSet(i, 0);
+        }
+        return new HistogramSnapshot(merged, sum.sumThenReset(), min.getThenReset(), max.getThenReset());
+    }
+
+    private int stripe() {
+        // Fibonacci hashing spreads consecutive thread ids over the stripes
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 40) & stripeMask;
+    }
+
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        final int exp = 63 - Long.numberOfLeadingZeros(v);
+        final int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The smallest value counted in the given bucket.
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        final int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BITS);
+    }
+
+    /**
+     * The largest value counted in the given bucket.
+     */
+    static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+}
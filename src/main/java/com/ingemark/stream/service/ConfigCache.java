@@ -0,0 +1,90 @@
+package com.ingemark.stream.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ingemark.stream.util.Util.logger;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Keeps all configuration entries in memory as an immutable {@link ConfigSnapshot}.
+ * <p/>
+ * Readers get the current snapshot with a single volatile read and never touch the
+ * database. The snapshot is reloaded every {@code config.refreshMillis} milliseconds
+ * and whenever {@link #refresh} is called after a write. A reload which finds the
+ * entries unchanged keeps the current snapshot, so its version, and with it the ETag
+ * served to clients, only changes along with the content.
+ */
+@Service
+public class ConfigCache implements InitializingBean, DisposableBean {
+    private final AtomicReference<ConfigSnapshot> snapshot = new AtomicReference<>();
+    private final long epoch = System.currentTimeMillis();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "config-cache-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    @Autowired
+    private SessionFactory sf;
+    @Value("${config.refreshMillis:30000}")
+    private long refreshMillis;
+
+    @Override
+    public void afterPropertiesSet() {
+        snapshot.set(new ConfigSnapshot(new HashMap<>(), epoch, 0));
+        tryRefresh();
+        scheduler.scheduleWithFixedDelay(this::tryRefresh, refreshMillis, refreshMillis, MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public ConfigSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Reloads the entries from the database and publishes a new snapshot if they have
+     * changed.
+     */
+    public synchronized ConfigSnapshot refresh() {
+        final Map<String, String> values = load();
+        final ConfigSnapshot current = snapshot.get();
+        if (values.equals(current.values())) return current;
+        final ConfigSnapshot next = new ConfigSnapshot(values, epoch, current.version() + 1);
+        snapshot.set(next);
+        return next;
+    }
+
+    private void tryRefresh() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            logger.warn("Failed refreshing the configuration cache", e);
+        }
+    }
+
+    private Map<String, String> load() {
+        try (StatelessSession s = sf.openStatelessSession()) {
+            @SuppressWarnings("unchecked")
+            final List<Object[]> rows = s.createQuery("select key, value from Config order by id").list();
+            final Map<String, String> values = new HashMap<>(rows.size() * 4 / 3 + 1);
+            for (Object[] row : rows) values.put((String) row[0], (String) row[1]);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ingemark.stream.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ingemark.stream.controller.ConfigDto;
+import com.ingemark.stream.model.db.Config;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.ingemark.stream.spliterators.PartitioningSpliterator.partition;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+
+/**
+ * Imports configuration entries in bulk from JSON.
+ * <p/>
+ * The input is either a JSON array of entries or a sequence of root-level entries, such
+ * as NDJSON. It is parsed incrementally, one entry at a time, and inserted through a
+ * {@code StatelessSession} in chunks of the configured JDBC batch size, each chunk sent
+ * as one JDBC batch. Memory use therefore does not depend on the size of the input.
+ * Identifiers are assigned by the entity's sequence generator, so any ids present in the
+ * input are ignored. The import runs in a single transaction and either inserts all
+ * entries or none.
+ */
+@Service
+public class ConfigImporter {
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+    @Autowired
+    private SessionFactory sf;
+    @Autowired
+    private ObjectMapper mapper;
+    @Autowired
+    private ConfigCache configCache;
+
+    /**
+     * Inserts all entries read from the given input and returns their number. The input
+     * is not closed.
+     */
+    public long importFrom(InputStream in) throws IOException {
+        final long count;
+        // the parser would otherwise close the input along with itself
+        try (MappingIterator<ConfigDto> dtos = mapper.readerFor(ConfigDto.class)
+                                                     .without(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+                                                     .readValues(in)) {
+            count = insert(StreamSupport.stream(Spliterators.spliteratorUnknownSize(dtos, ORDERED | NONNULL), false));
+        }
+        configCache.refresh();
+        return count;
+    }
+
+    private long insert(Stream<ConfigDto> dtos) {
+        final int chunkSize = chunkSize();
+        try (StatelessSession s = sf.openStatelessSession()) {
+            final Transaction tx = s.beginTransaction();
+            try {
+                final long count = partition(dtos, chunkSize).mapToLong(chunk -> insert(s, chunk)).sum();
+                tx.commit();
+                return count;
+            } catch (RuntimeException | Error e) {
+                tx.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static int insert(StatelessSession s, List<ConfigDto> chunk) {
+        for (ConfigDto dto : chunk) {
+            final Config c = new Config();
+            c.key = dto.key;
+            c.value = dto.value;
+            s.insert(c);
+        }
+        // send the chunk now rather than leave a partial batch pending until commit
+        ((SessionImplementor) s).getJdbcCoordinator().executeBatch();
+        return chunk.size();
+    }
+
+    private int chunkSize() {
+        final int batchSize = sf.getSessionFactoryOptions().getJdbcBatchSize();
+        return batchSize > 0 ? batchSize : DEFAULT_CHUNK_SIZE;
+    }
+}
@@ -0,0 +1,40 @@
+package com.ingemark.stream.service;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable view of all configuration entries at one point in time. The version grows
+ * by one whenever the entries change; together with the epoch of the cache which took the
+ * snapshot, it identifies the content for HTTP conditional requests.
+ */
+public final class ConfigSnapshot {
+    private final Map<String, String> values;
+    private final long epoch;
+    private final long version;
+
+    ConfigSnapshot(Map<String, String> values, long epoch, long version) {
+        this.values = Collections.unmodifiableMap(values);
+        this.epoch = epoch;
+        this.version = version;
+    }
+
+    public Map<String, String> values() {
+        return values;
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * A strong entity tag for this snapshot, unique across restarts of the application.
+     */
+    public String etag() {
+        return "\"" + Long.toHexString(epoch) + '-' + version + '"';
+    }
+}
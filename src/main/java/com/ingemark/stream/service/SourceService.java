@@ -25,6 +25,7 @@ public class SourceService {
         System.out.println(iterableStream(new RandomIntSource()));
         System.out.println(stream(new RandomIntSource()));
         System.out.println(streamEnhanced(new RandomIntSource()));
+        System.out.println(intStream(new RandomIntSource()));
         // Producing on thread demo
 
         regexSpliterator();
@@ -98,4 +99,8 @@ public class SourceService {
                 .collect(Collectors.summingLong(Integer::longValue));
     }
 
+    public static long intStream(RandomIntSource s) {
+        return s.intStream().asLongStream().sum();
+    }
+
 }
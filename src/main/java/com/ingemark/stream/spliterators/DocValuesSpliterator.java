@@ -0,0 +1,315 @@
+package com.ingemark.stream.spliterators;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Produces columnar rows read from the DocValues of the live documents containing a term.
+ * Nothing is read from stored fields: a row gives access to the values of the requested
+ * {@code NumericDocValues} and {@code SortedDocValues} fields. A document without a value
+ * reads as {@code 0} for a numeric field, which {@link Row#hasNumeric} tells apart from a
+ * stored {@code 0}, and as {@code null} for a sorted field.
+ * <p/>
+ * The row is a flyweight: the same instance is passed to every call of the action and
+ * reads the values of the current document on demand, so nothing is allocated or copied
+ * per document. A row, and any {@code BytesRef} it returns, is only valid during the call
+ * of the action it is passed to; {@link Row#copy} detaches it from the spliterator. Rows
+ * buffered into a batch by {@link #trySplit} are copied. Since every row passed on is the
+ * same instance, the spliterator does not report {@code DISTINCT}.
+ * <p/>
+ * Like {@link SegmentTermDocsSpliterator}, this spliterator visits the index one segment at
+ * a time and splits by dividing the segments between the two halves.
+ * {@link #longValues(IndexReader, Term, String)} streams a single numeric field as a
+ * {@code LongStream} without allocating anything per document.
+ */
+public class DocValuesSpliterator extends FixedBatchSpliteratorBase<DocValuesSpliterator.Row> {
+    private final LeafDocs docs;
+    private final String[] numericFields;
+    private final String[] sortedFields;
+    private final NumericDocValues[] numerics;
+    private final Bits[] docsWithNumerics;
+    private final SortedDocValues[] sorteds;
+    private final View row = new View();
+    private LeafReaderContext leaf;
+
+    public DocValuesSpliterator(IndexReader reader, Term term, List<String> numericFields, List<String> sortedFields) {
+        this(termDocs(reader, term), numericFields.toArray(new String[0]), sortedFields.toArray(new String[0]));
+    }
+
+    private DocValuesSpliterator(LeafDocs docs, String[] numericFields, String[] sortedFields) {
+        super(ORDERED | NONNULL, DEFAULT_BATCH_SIZE, docs.estimateSize());
+        this.docs = docs;
+        this.numericFields = numericFields;
+        this.sortedFields = sortedFields;
+        this.numerics = new NumericDocValues[numericFields.length];
+        this.docsWithNumerics = new Bits[numericFields.length];
+        this.sorteds = new SortedDocValues[sortedFields.length];
+    }
+
+    public static Stream<Row> rows(IndexReader reader, Term term, List<String> numericFields, List<String> sortedFields) {
+        return StreamSupport.stream(new DocValuesSpliterator(reader, term, numericFields, sortedFields), false);
+    }
+
+    /**
+     * Like {@link #rows(IndexReader, Term, List, List)}, for the term the given
+     * {@code TermsEnum} of the given field is positioned on.
+     */
+    public static Stream<Row> rows(IndexReader reader, String field, TermsEnum termsEnum,
+                                   List<String> numericFields, List<String> sortedFields) {
+        try {
+            return rows(reader, new Term(field, BytesRef.deepCopyOf(termsEnum.term())), numericFields, sortedFields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static LongStream longValues(IndexReader reader, Term term, String numericField) {
+        return StreamSupport.longStream(new NumericValues(termDocs(reader, term), numericField), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Row> action) {
+        if (!docs.nextDoc()) return false;
+        if (docs.leaf() != leaf) switchLeaf(docs.leaf());
+        row.doc = docs.doc();
+        action.accept(row);
+        return true;
+    }
+
+    @Override
+    protected Row detach(Row elem) {
+        return elem.copy();
+    }
+
+    @Override
+    public Spliterator<Row> trySplit() {
+        final LeafDocs prefix = docs.trySplit();
+        return prefix != null ? new DocValuesSpliterator(prefix, numericFields, sortedFields) : super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return docs.estimateSize();
+    }
+
+    private void switchLeaf(LeafReaderContext leaf) {
+        try {
+            final LeafReader reader = leaf.reader();
+            for (int i = 0; i < numericFields.length; i++) {
+                numerics[i] = DocValues.getNumeric(reader, numericFields[i]);
+                docsWithNumerics[i] = DocValues.getDocsWithField(reader, numericFields[i]);
+            }
+            for (int i = 0; i < sortedFields.length; i++) sorteds[i] = DocValues.getSorted(reader, sortedFields[i]);
+            this.leaf = leaf;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static LeafDocs termDocs(IndexReader reader, Term term) {
+        return new LeafDocs(reader.leaves(),
+                leaf -> leaf.reader().postings(term, PostingsEnum.NONE),
+                leaf -> leaf.reader().docFreq(term));
+    }
+
+    /**
+     * The DocValues of one document.
+     */
+    public abstract static class Row {
+        Row() {
+        }
+
+        /**
+         * The document's id in the top-level reader.
+         */
+        public abstract int doc();
+
+        /**
+         * The value of the numeric field at the given position in the list of numeric
+         * fields, or {@code 0} if the document has none.
+         */
+        public abstract long numeric(int i);
+
+        /**
+         * Whether the document has a value for the numeric field at the given position in
+         * the list of numeric fields.
+         */
+        public abstract boolean hasNumeric(int i);
+
+        /**
+         * The value of the sorted field at the given position in the list of sorted fields,
+         * or {@code null} if the document has none.
+         */
+        public abstract BytesRef sorted(int i);
+
+        /**
+         * Returns a copy of this row which stays valid after the action has returned.
+         */
+        public Row copy() {
+            final long[] numerics = new long[numericFields()];
+            final boolean[] hasNumerics = new boolean[numerics.length];
+            for (int i = 0; i < numerics.length; i++) {
+                numerics[i] = numeric(i);
+                hasNumerics[i] = hasNumeric(i);
+            }
+            final BytesRef[] sorteds = new BytesRef[sortedFields()];
+            for (int i = 0; i < sorteds.length; i++) {
+                final BytesRef value = sorted(i);
+                if (value != null) sorteds[i] = BytesRef.deepCopyOf(value);
+            }
+            return new Copy(doc(), numerics, hasNumerics, sorteds);
+        }
+
+        abstract int numericFields();
+
+        abstract int sortedFields();
+    }
+
+    /**
+     * The row of the current document, reading its values on demand.
+     */
+    private final class View extends Row {
+        int doc;
+
+        @Override
+        public int doc() {
+            return leaf.docBase + doc;
+        }
+
+        @Override
+        public long numeric(int i) {
+            return numerics[i].get(doc);
+        }
+
+        @Override
+        public boolean hasNumeric(int i) {
+            return docsWithNumerics[i].get(doc);
+        }
+
+        @Override
+        public BytesRef sorted(int i) {
+            final int ord = sorteds[i].getOrd(doc);
+            return ord >= 0 ? sorteds[i].lookupOrd(ord) : null;
+        }
+
+        @Override
+        int numericFields() {
+            return numerics.length;
+        }
+
+        @Override
+        int sortedFields() {
+            return sorteds.length;
+        }
+    }
+
+    private static final class Copy extends Row {
+        private final int doc;
+        private final long[] numerics;
+        private final boolean[] hasNumerics;
+        private final BytesRef[] sorteds;
+
+        Copy(int doc, long[] numerics, boolean[] hasNumerics, BytesRef[] sorteds) {
+            this.doc = doc;
+            this.numerics = numerics;
+            this.hasNumerics = hasNumerics;
+            this.sorteds = sorteds;
+        }
+
+        @Override
+        public int doc() {
+            return doc;
+        }
+
+        @Override
+        public long numeric(int i) {
+            return numerics[i];
+        }
+
+        @Override
+        public boolean hasNumeric(int i) {
+            return hasNumerics[i];
+        }
+
+        @Override
+        public BytesRef sorted(int i) {
+            return sorteds[i];
+        }
+
+        @Override
+        public Row copy() {
+            return this;
+        }
+
+        @Override
+        int numericFields() {
+            return numerics.length;
+        }
+
+        @Override
+        int sortedFields() {
+            return sorteds.length;
+        }
+    }
+
+    /**
+     * Produces the values of a single numeric DocValues field.
+     */
+    public static class NumericValues extends FixedBatchSpliteratorBase.OfLong {
+        private final LeafDocs docs;
+        private final String field;
+        private NumericDocValues values;
+        private LeafReaderContext leaf;
+
+        private NumericValues(LeafDocs docs, String field) {
+            super(ORDERED | NONNULL, DEFAULT_BATCH_SIZE, docs.estimateSize());
+            this.docs = docs;
+            this.field = field;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (!docs.nextDoc()) return false;
+            if (docs.leaf() != leaf) {
+                try {
+                    values = DocValues.getNumeric(docs.leaf().reader(), field);
+                    leaf = docs.leaf();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            action.accept(values.get(docs.doc()));
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            final LeafDocs prefix = docs.trySplit();
+            return prefix != null ? new NumericValues(prefix, field) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return docs.estimateSize();
+        }
+    }
+}
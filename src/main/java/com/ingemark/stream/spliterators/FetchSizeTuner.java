@@ -0,0 +1,193 @@
+package com.ingemark.stream.spliterators;
+
+import org.hibernate.ScrollableResults;
+
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adjusts the fetch size of a JDBC {@code ResultSet} while its rows are being read.
+ * <p/>
+ * The rows are observed in windows of whole fetches. After every window the tuner
+ * compares the time spent advancing to the rows, per row, with that of the previous
+ * window. While doubling the fetch size pays off, it keeps doubling; once it stops
+ * paying off, it falls back to the previous size and stays there. Independently, the
+ * fetch size is capped such that one fetch of rows of the observed average width fits
+ * into the memory budget, so a wide result shrinks the fetch size even after it has
+ * settled.
+ * <p/>
+ * The settled fetch size is remembered per query string, so the next execution of the
+ * same query starts out with it.
+ */
+final class FetchSizeTuner {
+    private static final int MAX_REMEMBERED_QUERIES = 1024;
+    private static final int SAMPLE_EVERY = 16;
+    private static final int MIN_WINDOW_ROWS = 1000;
+    private static final Map<String, Integer> tuned = new ConcurrentHashMap<>();
+    private final ResultSet rs;
+    private final String query;
+    private final long memoryBudget;
+    private final int minFetchSize;
+    private final int maxFetchSize;
+    private int fetchSize;
+    private int previousFetchSize;
+    private boolean growing = true;
+    private boolean warmedUp;
+    private int rows;
+    private long nanos;
+    private double previousNanosPerRow = -1;
+    private long sampledRows;
+    private long sampledBytes;
+
+    private FetchSizeTuner(ResultSet rs, String query, long memoryBudget, int minFetchSize, int maxFetchSize,
+                           int fetchSize) {
+        this.rs = rs;
+        this.query = query;
+        this.memoryBudget = memoryBudget;
+        this.minFetchSize = minFetchSize;
+        this.maxFetchSize = maxFetchSize;
+        this.fetchSize = clamp(fetchSize);
+        this.previousFetchSize = this.fetchSize;
+    }
+
+    /**
+     * Creates a tuner for the result set underlying the given scrollable results, or
+     * returns {@code null} if the result set cannot be reached.
+     *
+     * @param query the query string under which to remember the fetch size, or
+     *              {@code null} if it should not be remembered.
+     */
+    static FetchSizeTuner of(ScrollableResults results, String query, long memoryBudget,
+                             int minFetchSize, int maxFetchSize) {
+        final ResultSet rs = resultSet(results);
+        if (rs == null) return null;
+        try {
+            final int current = rs.getFetchSize();
+            final FetchSizeTuner tuner = new FetchSizeTuner(rs, query, memoryBudget, minFetchSize, maxFetchSize,
+                    current > 0 ? current : minFetchSize);
+            if (tuner.fetchSize != current) rs.setFetchSize(tuner.fetchSize);
+            return tuner;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the fetch size settled on by earlier executions of the given query, or
+     * {@code 0} if there is none.
+     */
+    static int tunedFetchSize(String query) {
+        final Integer size = tuned.get(query);
+        return size != null ? size : 0;
+    }
+
+    /**
+     * Records that advancing to a row took the given time. The row is passed every
+     * {@value #SAMPLE_EVERY} rows to sample its width, and may be {@code null}
+     * otherwise.
+     */
+    void rowRead(long advanceNanos, Object[] row) {
+        nanos += advanceNanos;
+        if (row != null) {
+            sampledRows++;
+            sampledBytes += width(row);
+        }
+        if (++rows >= windowRows()) adjust();
+    }
+
+    boolean wantsSample() {
+        return rows % SAMPLE_EVERY == 0;
+    }
+
+    /**
+     * Remembers the settled fetch size for the query.
+     */
+    void done() {
+        if (query == null || growing) return;
+        if (tuned.size() < MAX_REMEMBERED_QUERIES || tuned.containsKey(query)) tuned.put(query, fetchSize);
+    }
+
+    private void adjust() {
+        final double nanosPerRow = (double) nanos / rows;
+        rows = 0;
+        nanos = 0;
+        // the first fetch usually happens while the query executes, so the first window is not representative
+        if (!warmedUp) {
+            warmedUp = true;
+            return;
+        }
+        int next = fetchSize;
+        if (growing) {
+            if (previousNanosPerRow < 0 || nanosPerRow < 0.9 * previousNanosPerRow) next = fetchSize * 2;
+            else {
+                growing = false;
+                next = previousFetchSize;
+            }
+        }
+        previousFetchSize = fetchSize;
+        previousNanosPerRow = nanosPerRow;
+        next = clamp(next);
+        if (next == fetchSize) {
+            growing = false;
+            return;
+        }
+        try {
+            rs.setFetchSize(next);
+            fetchSize = next;
+        } catch (SQLException e) {
+            growing = false;
+        }
+    }
+
+    /**
+     * A whole number of fetches, enough rows to smooth out noise in the timing.
+     */
+    private int windowRows() {
+        return (MIN_WINDOW_ROWS + fetchSize - 1) / fetchSize * fetchSize;
+    }
+
+    private int clamp(int size) {
+        int max = maxFetchSize;
+        if (sampledRows > 0) {
+            final long rowBytes = Math.max(1, sampledBytes / sampledRows);
+            max = (int) Math.max(minFetchSize, Math.min(max, memoryBudget / rowBytes));
+        }
+        return Math.max(minFetchSize, Math.min(max, size));
+    }
+
+    /**
+     * Roughly estimates the heap taken by a row as the driver holds it.
+     */
+    private static long width(Object[] row) {
+        long bytes = 16 + 8L * row.length;
+        for (Object value : row) {
+            if (value == null) continue;
+            if (value instanceof CharSequence) bytes += 40 + 2L * ((CharSequence) value).length();
+            else if (value instanceof byte[]) bytes += 16 + ((byte[]) value).length;
+            else bytes += 24;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reaches into Hibernate's implementation for the underlying result set, which
+     * {@code AbstractScrollableResults} exposes only to subclasses.
+     */
+    private static ResultSet resultSet(ScrollableResults results) {
+        for (Class<?> c = results.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                final Method m = c.getDeclaredMethod("getResultSet");
+                m.setAccessible(true);
+                return (ResultSet) m.invoke(results);
+            } catch (NoSuchMethodException e) {
+                // look further up the hierarchy
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
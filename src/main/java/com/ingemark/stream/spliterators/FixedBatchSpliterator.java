@@ -26,6 +26,17 @@ public class FixedBatchSpliterator<T> extends FixedBatchSpliteratorBase<T> {
         return stream(new FixedBatchSpliterator<>(in.spliterator(), batchSize), true);
     }
 
+    public static <T> Stream<T> withAdaptiveBatchSize(Stream<T> in) {
+        return withAdaptiveBatchSize(in, DEFAULT_TARGET_BATCH_MILLIS, 1, MAX_ADAPTIVE_BATCH_SIZE);
+    }
+
+    public static <T> Stream<T> withAdaptiveBatchSize(
+            Stream<T> in, long targetBatchMillis, int minBatchSize, int maxBatchSize) {
+        final FixedBatchSpliterator<T> spliterator = new FixedBatchSpliterator<>(in.spliterator());
+        spliterator.setAdaptiveBatchSize(targetBatchMillis, minBatchSize, maxBatchSize);
+        return stream(spliterator, true);
+    }
+
     public static <T> FixedBatchSpliterator<T> batchedSpliterator(Spliterator<T> toWrap, int batchSize) {
         return new FixedBatchSpliterator<>(toWrap, batchSize);
     }
@@ -3,8 +3,12 @@ package com.ingemark.stream.spliterators;
 import java.util.Comparator;
 import java.util.Spliterator;
 import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 import static java.util.Spliterators.spliterator;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * An abstract {@code Spliterator} that implements {@link #trySplit} such that batches of
@@ -26,11 +30,27 @@ import static java.util.Spliterators.spliterator;
  * sequential operation, therefore parallelization can help performance only as
  * long as the time to fetch an element is negligible compared to the CPU time
  * needed to process it divided by the level of parallelism.
+ * <p/>
+ * When the processing cost per element is not known in advance, the batch size can be
+ * made adaptive through {@link #setAdaptiveBatchSize(long, int, int)
+ * setAdaptiveBatchSize}. The spliterator then measures the time the stream pipeline
+ * spends on each batch it has split off and sizes the next batch such that its
+ * processing takes approximately the given target time.
+ * <p/>
+ * Sources of primitive values should extend one of the nested {@link OfInt},
+ * {@link OfLong} or {@link OfDouble} classes, which batch into primitive arrays and
+ * avoid boxing each element.
  */
 public abstract class FixedBatchSpliteratorBase<T> implements Spliterator<T> {
     public static final int DEFAULT_BATCH_SIZE = 64;
-    private final int batchSize;
+    public static final long DEFAULT_TARGET_BATCH_MILLIS = 5;
+    public static final int MAX_ADAPTIVE_BATCH_SIZE = 1 << 16;
     private final int characteristics;
+    private int batchSize;
+    private int minBatchSize;
+    private int maxBatchSize;
+    private long targetBatchNanos;
+    private volatile double nanosPerElement;
     private long est;
 
     /**
@@ -73,7 +93,38 @@ public abstract class FixedBatchSpliteratorBase<T> implements Spliterator<T> {
      *                                  additionally report {@link #SUBSIZED}.
      */
     protected FixedBatchSpliteratorBase(int characteristics) {
-        this(characteristics, 64, Long.MAX_VALUE);
+        this(characteristics, DEFAULT_BATCH_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Switches this spliterator into adaptive mode. Each batch split off will be timed
+     * while it is being processed by the stream pipeline and the size of the following
+     * batches will be adjusted such that their processing takes about
+     * {@code targetBatchMillis}. The batch size at most doubles or halves from one batch
+     * to the next and always stays within the given bounds. The batch size this
+     * spliterator was created with is used until the first measurement is available.
+     *
+     * @param targetBatchMillis the desired time to process one batch, in milliseconds
+     * @param minBatchSize      the smallest batch size this spliterator will use
+     * @param maxBatchSize      the largest batch size this spliterator will use
+     */
+    public void setAdaptiveBatchSize(long targetBatchMillis, int minBatchSize, int maxBatchSize) {
+        if (targetBatchMillis <= 0) throw new IllegalArgumentException(
+                "Target batch time must be positive, but was " + targetBatchMillis);
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) throw new IllegalArgumentException(
+                "Invalid batch size bounds [" + minBatchSize + ", " + maxBatchSize + "]");
+        this.targetBatchNanos = MILLISECONDS.toNanos(targetBatchMillis);
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = clamp(batchSize);
+    }
+
+    /**
+     * Returns the size of the next batch to be split off. In adaptive mode this is the
+     * size most recently derived from the measured processing time per element.
+     */
+    public int batchSize() {
+        return batchSize;
     }
 
     /**
@@ -92,12 +143,69 @@ public abstract class FixedBatchSpliteratorBase<T> implements Spliterator<T> {
     public Spliterator<T> trySplit() {
         final HoldingConsumer<T> holder = new HoldingConsumer<>();
         if (!tryAdvance(holder)) return null;
-        final Object[] a = new Object[batchSize];
+        final int n = nextBatchSize();
+        final Object[] a = new Object[n];
         int j = 0;
-        do a[j] = holder.value;
-        while (++j < batchSize && tryAdvance(holder));
-        if (est != Long.MAX_VALUE) est -= j;
-        return spliterator(a, 0, j, characteristics());
+        do a[j] = detach(holder.value);
+        while (++j < n && tryAdvance(holder));
+        splitOff(j);
+        return timed(spliterator(a, 0, j, characteristics()));
+    }
+
+    /**
+     * Returns an element which stays valid after {@code tryAdvance} has returned, for
+     * buffering into a batch. A spliterator which reuses one mutable element across calls
+     * of {@code tryAdvance} must return a copy; this implementation returns the element.
+     */
+    protected T detach(T elem) {
+        return elem;
+    }
+
+    /**
+     * Computes the size of the batch about to be split off. In fixed mode this is simply
+     * the configured batch size; in adaptive mode the size is derived from the measured
+     * processing time per element.
+     */
+    protected int nextBatchSize() {
+        final double perElement = nanosPerElement;
+        if (targetBatchNanos > 0 && perElement > 0) {
+            final long ideal = (long) (targetBatchNanos / perElement);
+            batchSize = clamp(Math.max(batchSize / 2, Math.min(2L * batchSize, ideal)));
+        }
+        return batchSize;
+    }
+
+    /**
+     * Wraps a batch which has just been split off so that, in adaptive mode, the time
+     * taken to process it is fed back into the batch size calculation. In fixed mode the
+     * batch is returned as-is.
+     */
+    protected Spliterator<T> timed(Spliterator<T> batch) {
+        return isAdaptive() ? new TimedBatch<>(batch, this) : batch;
+    }
+
+    /**
+     * Deducts the elements split off this spliterator from its estimated size, unless
+     * the size is unknown.
+     */
+    void splitOff(long count) {
+        if (est != Long.MAX_VALUE) est -= count;
+    }
+
+    boolean isAdaptive() {
+        return targetBatchNanos > 0;
+    }
+
+    void recordBatch(long elements, long nanos) {
+        if (elements <= 0) return;
+        final double sample = (double) nanos / elements;
+        final double prev = nanosPerElement;
+        // concurrent updates may occasionally lose a sample, which is harmless for a moving average
+        nanosPerElement = prev == 0 ? sample : prev + (sample - prev) / 4;
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(minBatchSize, Math.min(maxBatchSize, size));
     }
 
     @Override
@@ -127,6 +235,269 @@ public abstract class FixedBatchSpliteratorBase<T> implements Spliterator<T> {
         return characteristics;
     }
 
+    /**
+     * A {@code FixedBatchSpliteratorBase} specialized for {@code int} values. Batches are
+     * split off into {@code int[]} arrays so no element is boxed on the way to an
+     * {@code IntStream}. An extending class need only implement
+     * {@link #tryAdvance(IntConsumer) tryAdvance(IntConsumer)}.
+     */
+    public abstract static class OfInt extends FixedBatchSpliteratorBase<Integer> implements Spliterator.OfInt {
+        protected OfInt(int additionalCharacteristics, int batchSize, long est) {
+            super(additionalCharacteristics, batchSize, est);
+        }
+
+        protected OfInt(int characteristics, int batchSize) {
+            super(characteristics, batchSize);
+        }
+
+        protected OfInt(int characteristics) {
+            super(characteristics);
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            final IntHoldingConsumer holder = new IntHoldingConsumer();
+            if (!tryAdvance(holder)) return null;
+            final int n = nextBatchSize();
+            final int[] a = new int[n];
+            int j = 0;
+            do a[j] = holder.value;
+            while (++j < n && tryAdvance(holder));
+            splitOff(j);
+            final Spliterator.OfInt batch = spliterator(a, 0, j, characteristics());
+            return isAdaptive() ? new TimedIntBatch(batch, this) : batch;
+        }
+    }
+
+    /**
+     * A {@code FixedBatchSpliteratorBase} specialized for {@code long} values. Batches are
+     * split off into {@code long[]} arrays so no element is boxed on the way to an
+     * {@code LongStream}. An extending class need only implement
+     * {@link #tryAdvance(LongConsumer) tryAdvance(LongConsumer)}.
+     */
+    public abstract static class OfLong extends FixedBatchSpliteratorBase<Long> implements Spliterator.OfLong {
+        protected OfLong(int additionalCharacteristics, int batchSize, long est) {
+            super(additionalCharacteristics, batchSize, est);
+        }
+
+        protected OfLong(int characteristics, int batchSize) {
+            super(characteristics, batchSize);
+        }
+
+        protected OfLong(int characteristics) {
+            super(characteristics);
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            final LongHoldingConsumer holder = new LongHoldingConsumer();
+            if (!tryAdvance(holder)) return null;
+            final int n = nextBatchSize();
+            final long[] a = new long[n];
+            int j = 0;
+            do a[j] = holder.value;
+            while (++j < n && tryAdvance(holder));
+            splitOff(j);
+            final Spliterator.OfLong batch = spliterator(a, 0, j, characteristics());
+            return isAdaptive() ? new TimedLongBatch(batch, this) : batch;
+        }
+    }
+
+    /**
+     * A {@code FixedBatchSpliteratorBase} specialized for {@code double} values. Batches are
+     * split off into {@code double[]} arrays so no element is boxed on the way to an
+     * {@code DoubleStream}. An extending class need only implement
+     * {@link #tryAdvance(DoubleConsumer) tryAdvance(DoubleConsumer)}.
+     */
+    public abstract static class OfDouble extends FixedBatchSpliteratorBase<Double> implements Spliterator.OfDouble {
+        protected OfDouble(int additionalCharacteristics, int batchSize, long est) {
+            super(additionalCharacteristics, batchSize, est);
+        }
+
+        protected OfDouble(int characteristics, int batchSize) {
+            super(characteristics, batchSize);
+        }
+
+        protected OfDouble(int characteristics) {
+            super(characteristics);
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            final DoubleHoldingConsumer holder = new DoubleHoldingConsumer();
+            if (!tryAdvance(holder)) return null;
+            final int n = nextBatchSize();
+            final double[] a = new double[n];
+            int j = 0;
+            do a[j] = holder.value;
+            while (++j < n && tryAdvance(holder));
+            splitOff(j);
+            final Spliterator.OfDouble batch = spliterator(a, 0, j, characteristics());
+            return isAdaptive() ? new TimedDoubleBatch(batch, this) : batch;
+        }
+    }
+
+    static final class TimedIntBatch implements Spliterator.OfInt {
+        private final Spliterator.OfInt batch;
+        private final FixedBatchSpliteratorBase<?> owner;
+
+        TimedIntBatch(Spliterator.OfInt batch, FixedBatchSpliteratorBase<?> owner) {
+            this.batch = batch;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            return batch.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            final long size = batch.estimateSize();
+            final long start = System.nanoTime();
+            batch.forEachRemaining(action);
+            owner.recordBatch(size, System.nanoTime() - start);
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            final Spliterator.OfInt prefix = batch.trySplit();
+            return prefix == null ? null : new TimedIntBatch(prefix, owner);
+        }
+
+        @Override
+        public long estimateSize() {
+            return batch.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return batch.characteristics();
+        }
+    }
+
+    static final class TimedLongBatch implements Spliterator.OfLong {
+        private final Spliterator.OfLong batch;
+        private final FixedBatchSpliteratorBase<?> owner;
+
+        TimedLongBatch(Spliterator.OfLong batch, FixedBatchSpliteratorBase<?> owner) {
+            this.batch = batch;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            return batch.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            final long size = batch.estimateSize();
+            final long start = System.nanoTime();
+            batch.forEachRemaining(action);
+            owner.recordBatch(size, System.nanoTime() - start);
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            final Spliterator.OfLong prefix = batch.trySplit();
+            return prefix == null ? null : new TimedLongBatch(prefix, owner);
+        }
+
+        @Override
+        public long estimateSize() {
+            return batch.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return batch.characteristics();
+        }
+    }
+
+    static final class TimedDoubleBatch implements Spliterator.OfDouble {
+        private final Spliterator.OfDouble batch;
+        private final FixedBatchSpliteratorBase<?> owner;
+
+        TimedDoubleBatch(Spliterator.OfDouble batch, FixedBatchSpliteratorBase<?> owner) {
+            this.batch = batch;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            return batch.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(DoubleConsumer action) {
+            final long size = batch.estimateSize();
+            final long start = System.nanoTime();
+            batch.forEachRemaining(action);
+            owner.recordBatch(size, System.nanoTime() - start);
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            final Spliterator.OfDouble prefix = batch.trySplit();
+            return prefix == null ? null : new TimedDoubleBatch(prefix, owner);
+        }
+
+        @Override
+        public long estimateSize() {
+            return batch.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return batch.characteristics();
+        }
+    }
+
+    static final class TimedBatch<T> implements Spliterator<T> {
+        private final Spliterator<T> batch;
+        private final FixedBatchSpliteratorBase<?> owner;
+
+        TimedBatch(Spliterator<T> batch, FixedBatchSpliteratorBase<?> owner) {
+            this.batch = batch;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            return batch.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            final long size = batch.estimateSize();
+            final long start = System.nanoTime();
+            batch.forEachRemaining(action);
+            owner.recordBatch(size, System.nanoTime() - start);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            final Spliterator<T> prefix = batch.trySplit();
+            return prefix == null ? null : new TimedBatch<>(prefix, owner);
+        }
+
+        @Override
+        public long estimateSize() {
+            return batch.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return batch.characteristics();
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return batch.getComparator();
+        }
+    }
+
     protected static final class HoldingConsumer<T> implements Consumer<T> {
         T value;
 
@@ -135,4 +506,31 @@ public abstract class FixedBatchSpliteratorBase<T> implements Spliterator<T> {
             this.value = value;
         }
     }
+
+    static final class IntHoldingConsumer implements IntConsumer {
+        int value;
+
+        @Override
+        public void accept(int value) {
+            this.value = value;
+        }
+    }
+
+    static final class LongHoldingConsumer implements LongConsumer {
+        long value;
+
+        @Override
+        public void accept(long value) {
+            this.value = value;
+        }
+    }
+
+    static final class DoubleHoldingConsumer implements DoubleConsumer {
+        double value;
+
+        @Override
+        public void accept(double value) {
+            this.value = value;
+        }
+    }
 }
@@ -0,0 +1,163 @@
+package com.ingemark.stream.spliterators;
+
+import com.ingemark.stream.metrics.SpliteratorMetrics;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Wraps a spliterator and records its traversal into {@link SpliteratorMetrics}: the
+ * splits, their latency and the sizes of the split-off parts, the time each element takes
+ * to be fetched from the source and to be processed downstream, the elements produced per
+ * thread and the time to the first element. The parts split off this spliterator are
+ * instrumented as well and record into the same metrics.
+ * <p/>
+ * The action passed to {@code tryAdvance} or {@code forEachRemaining} is wrapped to take
+ * the time it is entered and left: the fetch time of an element runs from the start of the
+ * call, or from the return of the previous action, to the entry of the action, and its
+ * downstream time from the entry to the return. {@code forEachRemaining} is delegated to
+ * the wrapped spliterator, keeping its bulk traversal, and is also timed as a whole.
+ * <p/>
+ * Each element costs two {@code System.nanoTime()} calls, three if pulled with
+ * {@code tryAdvance}, and a few uncontended counter updates, which is negligible next to
+ * fetching it from a database or an index, but not next to trivial in-memory sources.
+ *
+ * @param <T> The type of elements produced by this Spliterator
+ */
+public class InstrumentedSpliterator<T> implements Spliterator<T> {
+    private final Spliterator<T> spliterator;
+    private final SpliteratorMetrics metrics;
+    private final Traversal traversal;
+    private final Timing timing = new Timing();
+    private Thread thread;
+    private LongAdder threadElements;
+
+    /**
+     * Instruments a new traversal of the given spliterator.
+     */
+    public InstrumentedSpliterator(Spliterator<T> spliterator, SpliteratorMetrics metrics) {
+        this(spliterator, metrics, new Traversal());
+        metrics.traversalStarted();
+    }
+
+    private InstrumentedSpliterator(Spliterator<T> spliterator, SpliteratorMetrics metrics, Traversal traversal) {
+        this.spliterator = spliterator;
+        this.metrics = metrics;
+        this.traversal = traversal;
+    }
+
+    /**
+     * Returns a stream over the elements of the given stream which records its traversal
+     * into the given metrics. Closing the returned stream closes the given one.
+     */
+    public static <T> Stream<T> instrument(Stream<T> stream, SpliteratorMetrics metrics) {
+        return StreamSupport.stream(new InstrumentedSpliterator<>(stream.spliterator(), metrics), stream.isParallel())
+                            .onClose(stream::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        timing.begin(action);
+        final boolean advanced = spliterator.tryAdvance(timing);
+        timing.end();
+        return advanced;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        final long start = timing.begin(action);
+        spliterator.forEachRemaining(timing);
+        metrics.traversedInBulk(System.nanoTime() - start);
+        timing.end();
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        final long start = System.nanoTime();
+        final Spliterator<T> prefix = spliterator.trySplit();
+        metrics.splitAttempted(System.nanoTime() - start);
+        if (prefix == null) return null;
+        metrics.split(prefix.getExactSizeIfKnown());
+        return new InstrumentedSpliterator<>(prefix, metrics, traversal);
+    }
+
+    @Override
+    public long estimateSize() {
+        return spliterator.estimateSize();
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return spliterator.getExactSizeIfKnown();
+    }
+
+    @Override
+    public int characteristics() {
+        return spliterator.characteristics();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return spliterator.getComparator();
+    }
+
+    private LongAdder threadElements() {
+        final Thread current = Thread.currentThread();
+        if (current != thread) {
+            thread = current;
+            threadElements = metrics.elementCounter(current);
+        }
+        return threadElements;
+    }
+
+    /**
+     * The state shared by all parts of one traversal.
+     */
+    private static class Traversal {
+        final long startNanos = System.nanoTime();
+        final AtomicBoolean firstElement = new AtomicBoolean();
+
+        void elementProduced(long nanos, SpliteratorMetrics metrics) {
+            if (!firstElement.get() && firstElement.compareAndSet(false, true)) {
+                metrics.firstElement(nanos - startNanos);
+            }
+        }
+    }
+
+    /**
+     * Wraps the action of a traversal call, timing each element and counting the elements,
+     * which are added to the thread's counter when the call ends. Reused across calls, as
+     * a spliterator is traversed by one thread at a time.
+     */
+    private final class Timing implements Consumer<T> {
+        private Consumer<? super T> action;
+        private long last;
+        private long count;
+
+        long begin(Consumer<? super T> action) {
+            this.action = action;
+            this.count = 0;
+            return last = System.nanoTime();
+        }
+
+        void end() {
+            action = null;
+            if (count > 0) threadElements().add(count);
+        }
+
+        @Override
+        public void accept(T elem) {
+            final long entered = System.nanoTime();
+            metrics.fetched(entered - last);
+            if (count++ == 0) traversal.elementProduced(entered, metrics);
+            action.accept(elem);
+            last = System.nanoTime();
+            metrics.processedDownstream(last - entered);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.ingemark.stream.spliterators;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A spliterator over the results of a Hibernate query partitioned by ranges of a numeric
+ * key. Each split covers a disjoint, half-open key range {@code [lo, hi)} and, once
+ * traversal begins, opens its own {@code StatelessSession} (and thus its own JDBC
+ * connection) with a {@code FORWARD_ONLY} cursor over just that range. This allows a
+ * parallel stream to fetch over as many connections as it has worker threads.
+ * <p/>
+ * The query must declare the named parameters {@code :lo} and {@code :hi} and restrict
+ * the key to the range between them; it should also order by the key if the encounter
+ * order is relevant. For example:
+ * <pre>{@code
+ * keyRangeStream(Config.class, sf,
+ *         "from Config where id >= :lo and id < :hi order by id",
+ *         "select min(id), max(id) from Config", 10_000)
+ * }</pre>
+ * {@link #trySplit} halves the key range as long as traversal has not begun and the
+ * range is at least twice the minimum range size. Once the cursor is open, this
+ * spliterator falls back to splitting off batches of its strict prefix. The estimated
+ * size is the width of the key range, which is exact only for a dense key.
+ * <p/>
+ * All splits stemming from one root share the responsibility for cleanup: {@link #close}
+ * on any of them closes every cursor and session still open.
+ *
+ * @param <T> The type of elements produced by this Spliterator
+ */
+public class KeyRangeSpliterator<T> extends FixedBatchSpliteratorBase<T> {
+    public static final long DEFAULT_MIN_RANGE = 10_000;
+    private final Class<T> clazz;
+    private final SessionFactory sf;
+    private final String hql;
+    private final long minRange;
+    private final Queue<KeyRangeSpliterator<?>> open;
+    private long lo, hi;
+    private StatelessSession session;
+    private ScrollableResultsSpliterator<T> results;
+    private boolean exhausted;
+
+    /**
+     * Creates a spliterator over the given key range.
+     *
+     * @param clazz    the type of the elements which will be produced by the spliterator.
+     * @param sf       the session factory from which to open a stateless session per split.
+     * @param hql      the query, which must declare the {@code :lo} and {@code :hi} parameters.
+     * @param lo       the lowest key, inclusive.
+     * @param hi       the highest key, exclusive.
+     * @param minRange the smallest key range which will be split further.
+     */
+    public KeyRangeSpliterator(Class<T> clazz, SessionFactory sf, String hql, long lo, long hi, long minRange) {
+        this(clazz, sf, hql, lo, hi, minRange, new ConcurrentLinkedQueue<>());
+    }
+
+    private KeyRangeSpliterator(Class<T> clazz, SessionFactory sf, String hql, long lo, long hi, long minRange,
+                                Queue<KeyRangeSpliterator<?>> open) {
+        super(ORDERED | NONNULL, DEFAULT_BATCH_SIZE);
+        if (minRange <= 0) throw new IllegalArgumentException("Minimum range must be positive, but was " + minRange);
+        this.clazz = clazz;
+        this.sf = sf;
+        this.hql = hql;
+        this.lo = lo;
+        this.hi = Math.max(lo, hi);
+        this.minRange = minRange;
+        this.open = open;
+    }
+
+    /**
+     * Builds a {@code Stream} over the key range reported by {@code boundsHql}, which
+     * must select the minimum and maximum key, in that order. Closing the stream will
+     * close all cursors and sessions opened by the splits.
+     *
+     * @param clazz    the type of the stream elements.
+     * @param sf       the session factory.
+     * @param hql      the query, which must declare the {@code :lo} and {@code :hi} parameters.
+     * @param boundsHql the query selecting the minimum and maximum key.
+     * @param minRange the smallest key range which will be split further.
+     * @return a {@code Stream} of elements returned by the query.
+     */
+    public static <T> Stream<T> keyRangeStream(
+            Class<T> clazz, SessionFactory sf, String hql, String boundsHql, long minRange) {
+        final StatelessSession s = sf.openStatelessSession();
+        final Object[] bounds;
+        try {
+            bounds = (Object[]) s.createQuery(boundsHql).uniqueResult();
+        } finally {
+            s.close();
+        }
+        final boolean empty = bounds == null || bounds[0] == null;
+        final long lo = empty ? 0 : ((Number) bounds[0]).longValue();
+        final long hi = empty ? 0 : ((Number) bounds[1]).longValue() + 1;
+        return resultStream(new KeyRangeSpliterator<>(clazz, sf, hql, lo, hi, minRange));
+    }
+
+    /**
+     * Returns an initially sequential {@code Stream} based on the supplied key range
+     * spliterator. Closing the stream will invoke {@link #close} on the spliterator.
+     *
+     * @param spliterator the spliterator.
+     * @return a {@code Stream} of elements produced by the spliterator.
+     */
+    public static <T> Stream<T> resultStream(KeyRangeSpliterator<T> spliterator) {
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (exhausted) return false;
+        if (results == null) openCursor();
+        if (results.tryAdvance(action)) return true;
+        closeCursor();
+        exhausted = true;
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Before traversal begins, this implementation splits off the lower half of the key
+     * range. Afterwards it splits off batches of the strict prefix.
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        if (results == null && !exhausted && hi - lo >= 2 * minRange) {
+            final long mid = lo + (hi - lo) / 2;
+            final KeyRangeSpliterator<T> prefix = new KeyRangeSpliterator<>(clazz, sf, hql, lo, mid, minRange, open);
+            lo = mid;
+            return prefix;
+        }
+        return super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return exhausted ? 0 : hi - lo;
+    }
+
+    /**
+     * Closes the cursors and sessions of this spliterator and of all the spliterators
+     * split off the same root. After this method is called, {@code tryAdvance} will
+     * always return {@code false}.
+     */
+    public void close() {
+        exhausted = true;
+        for (KeyRangeSpliterator<?> s; (s = open.poll()) != null; ) s.closeCursor();
+        closeCursor();
+    }
+
+    private void openCursor() {
+        session = sf.openStatelessSession();
+        open.add(this);
+        try {
+            // a transaction keeps the connection out of auto-commit so the driver can use a cursor
+            session.beginTransaction();
+            results = new ScrollableResultsSpliterator<>(clazz, session.createQuery(hql)
+                    .setParameter("lo", lo)
+                    .setParameter("hi", hi));
+        } catch (RuntimeException e) {
+            closeCursor();
+            throw e;
+        }
+    }
+
+    private synchronized void closeCursor() {
+        if (session == null) return;
+        try {
+            if (results != null) results.close();
+            if (session.getTransaction().getStatus().canRollback()) session.getTransaction().rollback();
+        } finally {
+            session.close();
+            session = null;
+            open.remove(this);
+        }
+    }
+}
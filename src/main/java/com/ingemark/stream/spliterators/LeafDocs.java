@@ -0,0 +1,139 @@
+package com.ingemark.stream.spliterators;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static org.apache.lucene.search.DocIdSetIterator.NO_MORE_DOCS;
+
+/**
+ * Iterates the live documents matched in a range of index leaves, one leaf after another.
+ * The range can be split in two between leaves, which is how the segment-parallel Lucene
+ * spliterators divide their work. The leaf being iterated at the time of a split goes to
+ * the first half together with its iteration state.
+ */
+final class LeafDocs {
+    interface Opener {
+        /**
+         * Returns the matching documents of the leaf, or {@code null} if there are none.
+         */
+        DocIdSetIterator open(LeafReaderContext leaf) throws IOException;
+    }
+
+    interface Estimator {
+        long estimate(LeafReaderContext leaf) throws IOException;
+    }
+
+    private final List<LeafReaderContext> leaves;
+    private final Opener opener;
+    private final long[] estimates;
+    private final int end;
+    private int next;
+    private LeafReaderContext leaf;
+    private DocIdSetIterator docs;
+    private Bits liveDocs;
+    private int doc = -1;
+
+    LeafDocs(List<LeafReaderContext> leaves, Opener opener, Estimator estimator) {
+        this(leaves, opener, estimates(leaves, estimator), 0, leaves.size());
+    }
+
+    private LeafDocs(List<LeafReaderContext> leaves, Opener opener, long[] estimates, int next, int end) {
+        this.leaves = leaves;
+        this.opener = opener;
+        this.estimates = estimates;
+        this.next = next;
+        this.end = end;
+    }
+
+    /**
+     * Advances to the next live matching document, opening further leaves as needed.
+     */
+    boolean nextDoc() {
+        try {
+            while (true) {
+                if (docs == null) {
+                    if (next >= end) return false;
+                    leaf = leaves.get(next++);
+                    docs = opener.open(leaf);
+                    liveDocs = leaf.reader().getLiveDocs();
+                    if (docs == null) continue;
+                }
+                final int d = docs.nextDoc();
+                if (d == NO_MORE_DOCS) {
+                    docs = null;
+                    continue;
+                }
+                if (liveDocs != null && !liveDocs.get(d)) continue;
+                doc = d;
+                return true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The leaf of the current document.
+     */
+    LeafReaderContext leaf() {
+        return leaf;
+    }
+
+    /**
+     * The current document's id, relative to its leaf.
+     */
+    int doc() {
+        return doc;
+    }
+
+    /**
+     * The iterator positioned on the current document, as returned by the opener.
+     */
+    DocIdSetIterator docs() {
+        return docs;
+    }
+
+    /**
+     * Abandons the rest of the current leaf; the next call to {@link #nextDoc} moves on
+     * to the following leaf.
+     */
+    void skipLeaf() {
+        docs = null;
+    }
+
+    LeafDocs trySplit() {
+        if ((docs != null ? 1 : 0) + end - next < 2) return null;
+        final int mid = next + (end - next) / 2;
+        final LeafDocs prefix = new LeafDocs(leaves, opener, estimates, next, mid);
+        prefix.leaf = leaf;
+        prefix.docs = docs;
+        prefix.liveDocs = liveDocs;
+        prefix.doc = doc;
+        leaf = null;
+        docs = null;
+        liveDocs = null;
+        next = mid;
+        return prefix;
+    }
+
+    long estimateSize() {
+        long est = docs != null ? estimates[next - 1] : 0;
+        for (int i = next; i < end; i++) est += estimates[i];
+        return est;
+    }
+
+    private static long[] estimates(List<LeafReaderContext> leaves, Estimator estimator) {
+        try {
+            final long[] estimates = new long[leaves.size()];
+            for (int i = 0; i < estimates.length; i++) estimates[i] = estimator.estimate(leaves.get(i));
+            return estimates;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
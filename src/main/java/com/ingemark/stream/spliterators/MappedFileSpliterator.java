@@ -0,0 +1,213 @@
+package com.ingemark.stream.spliterators;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Produces the records of a file, separated by a delimiter byte, as {@code ByteBuffer}
+ * slices of a memory mapping of the file. No record is copied onto the heap; the slices
+ * are views of the page cache and stay valid after the stream has moved on.
+ * <p/>
+ * The file is mapped in windows of {@link #WINDOW_SIZE} bytes, so files larger than the
+ * 2 GB limit of a single mapping are supported as long as no single record is longer
+ * than a window. {@link #trySplit} divides the remaining byte range in half just after
+ * the first delimiter past the middle, so a parallel stream splits the file like an array.
+ * The estimated size is the number of bytes left.
+ * <p/>
+ * Individual fields can be extracted without creating a {@code String}, for example
+ * {@code lines(path).mapToLong(r -> longField(r, 2, (byte) ','))}.
+ */
+public class MappedFileSpliterator extends FixedBatchSpliteratorBase<ByteBuffer> {
+    public static final int WINDOW_SIZE = 1 << 26;
+    public static final long MIN_SPLIT_LENGTH = 1 << 20;
+    private static final int SCAN_BUFFER_SIZE = 1 << 13;
+    private final FileChannel channel;
+    private final byte delimiter;
+    private long from;
+    private final long to;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * Creates a spliterator over the records in the byte range {@code [from, to)} of the
+     * given channel. {@code from} must be the start of a record.
+     */
+    public MappedFileSpliterator(FileChannel channel, byte delimiter, long from, long to) {
+        super(ORDERED | NONNULL | IMMUTABLE, DEFAULT_BATCH_SIZE, to - from);
+        this.channel = channel;
+        this.delimiter = delimiter;
+        this.from = from;
+        this.to = to;
+    }
+
+    public MappedFileSpliterator(FileChannel channel, byte delimiter) throws IOException {
+        this(channel, delimiter, 0, channel.size());
+    }
+
+    /**
+     * Streams the lines of the given file, terminated by either {@code \n} or
+     * {@code \r\n}; the terminator is not part of the line. Closing the stream closes
+     * the file.
+     */
+    public static Stream<ByteBuffer> lines(Path path) {
+        return records(path, (byte) '\n').map(MappedFileSpliterator::trimCarriageReturn);
+    }
+
+    /**
+     * Streams the records of the given file, separated by the given delimiter. Closing the
+     * stream closes the file.
+     */
+    public static Stream<ByteBuffer> records(Path path, byte delimiter) {
+        try {
+            final FileChannel channel = FileChannel.open(path, READ);
+            return StreamSupport.stream(new MappedFileSpliterator(channel, delimiter), false).onClose(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ByteBuffer> action) {
+        if (from >= to) return false;
+        if (window == null || from - windowStart >= window.limit()) map(from);
+        int pos = (int) (from - windowStart);
+        int i = indexOfDelimiter(pos);
+        if (i == window.limit() && windowStart + i < to) {
+            // the record continues past the window: remap starting at the record
+            map(from);
+            pos = 0;
+            i = indexOfDelimiter(0);
+            if (i == window.limit() && windowStart + i < to) throw new IllegalStateException(
+                    "Record at offset " + from + " is longer than " + WINDOW_SIZE + " bytes");
+        }
+        final ByteBuffer record = window.duplicate();
+        record.position(pos).limit(i);
+        from = Math.min(to, windowStart + i + 1);
+        action.accept(record.slice());
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation splits off the first half of the remaining byte range, ending
+     * just after the first delimiter past the middle. Ranges shorter than
+     * {@link #MIN_SPLIT_LENGTH} are split into batches of their strict prefix.
+     */
+    @Override
+    public Spliterator<ByteBuffer> trySplit() {
+        if (to - from >= 2 * MIN_SPLIT_LENGTH) {
+            final long cut = recordStartAfter(from + (to - from) / 2);
+            if (cut > from && cut < to) {
+                final MappedFileSpliterator prefix = new MappedFileSpliterator(channel, delimiter, from, cut);
+                from = cut;
+                return prefix;
+            }
+        }
+        return super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    /**
+     * Returns a view of the given field of a record, fields being separated by the given
+     * byte. If the record has fewer fields, the view is empty.
+     */
+    public static ByteBuffer field(ByteBuffer record, int field, byte separator) {
+        final int limit = record.limit();
+        int start = record.position();
+        for (int f = 0; f < field && start < limit; start++) if (record.get(start) == separator) f++;
+        int end = start;
+        while (end < limit && record.get(end) != separator) end++;
+        final ByteBuffer view = record.duplicate();
+        view.position(Math.min(start, limit)).limit(end);
+        return view.slice();
+    }
+
+    /**
+     * Parses the given field of a record as a decimal {@code long} without creating a
+     * {@code String}.
+     *
+     * @throws NumberFormatException if the field is empty, not a decimal integer or out of
+     *                               the range of {@code long}
+     */
+    public static long longField(ByteBuffer record, int field, byte separator) {
+        final ByteBuffer f = field(record, field, separator);
+        final int limit = f.limit();
+        if (limit == 0) throw new NumberFormatException("Field " + field + " is empty");
+        final boolean negative = f.get(0) == '-';
+        int i = negative || f.get(0) == '+' ? 1 : 0;
+        if (i == limit) throw new NumberFormatException("Field " + field + " has no digits");
+        try {
+            // accumulated negatively, like Long.parseLong, so that Long.MIN_VALUE fits
+            long value = 0;
+            for (; i < limit; i++) {
+                final int digit = f.get(i) - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("Field " + field + " is not a number");
+                value = Math.subtractExact(Math.multiplyExact(value, 10), digit);
+            }
+            return negative ? value : Math.negateExact(value);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Field " + field + " is out of range");
+        }
+    }
+
+    private static ByteBuffer trimCarriageReturn(ByteBuffer line) {
+        final int end = line.limit() - 1;
+        if (end >= line.position() && line.get(end) == '\r') line.limit(end);
+        return line;
+    }
+
+    private int indexOfDelimiter(int start) {
+        final int limit = window.limit();
+        int i = start;
+        while (i < limit && window.get(i) != delimiter) i++;
+        return i;
+    }
+
+    private void map(long at) {
+        try {
+            window = channel.map(READ_ONLY, at, Math.min(WINDOW_SIZE, to - at));
+            windowStart = at;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long recordStartAfter(long position) {
+        final ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        try {
+            for (long pos = position; pos < to; ) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), to - pos));
+                final int n = channel.read(buf, pos);
+                if (n <= 0) return -1;
+                for (int i = 0; i < n; i++) if (buf.get(i) == delimiter) return pos + i + 1;
+                pos += n;
+            }
+            return -1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -10,40 +10,111 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+/**
+ * Groups runs of consecutive elements with equal keys into lists.
+ * <p/>
+ * If the underlying spliterator can split, so can this one. A key run may straddle the
+ * split point, so when splitting, the leading run of the suffix is read eagerly and
+ * handed over to the prefix, where it is appended after the prefix's own elements and
+ * merged with its last group if the keys are equal. The suffix thereby always starts at
+ * a group boundary and no group is ever cut in two. When the underlying spliterator
+ * cannot split, this spliterator falls back to splitting off batches of groups.
+ */
 public class PartitionBySpliterator<E> extends AbstractSpliterator<List<E>> {
     private final Spliterator<E> spliterator;
     private final Function<? super E, ?> partitionBy;
     private HoldingConsumer<E> holder;
+    private List<E> tail;
+    private int tailIndex;
 
     public PartitionBySpliterator(Spliterator<E> toWrap, Function<? super E, ?> partitionBy) {
-        super(Long.MAX_VALUE, toWrap.characteristics());
+        super(Long.MAX_VALUE, toWrap.characteristics() & ~(SIZED | SUBSIZED));
         this.spliterator = toWrap;
         this.partitionBy = partitionBy;
     }
 
+    private PartitionBySpliterator(Spliterator<E> toWrap, Function<? super E, ?> partitionBy,
+                                   HoldingConsumer<E> head, List<E> tail) {
+        this(toWrap, partitionBy);
+        this.holder = head;
+        this.tail = tail;
+    }
+
     public static <E> Stream<List<E>> partitionBy(Function<E, ?> partitionBy, Stream<E> in) {
         return StreamSupport.stream(new PartitionBySpliterator<>(in.spliterator(), partitionBy), false);
     }
 
+    /**
+     * Like {@link #partitionBy(Function, Stream)}, but returns a parallel stream which
+     * splits the input stream's spliterator.
+     */
+    public static <E> Stream<List<E>> parallelPartitionBy(Function<E, ?> partitionBy, Stream<E> in) {
+        return StreamSupport.stream(new PartitionBySpliterator<>(in.spliterator(), partitionBy), true);
+    }
+
     @Override
     public boolean tryAdvance(Consumer<? super List<E>> action) {
         final HoldingConsumer<E> h;
         if (holder == null) {
             h = new HoldingConsumer<>();
-            if (!spliterator.tryAdvance(h)) return false;
+            if (!nextElement(h)) return false;
             holder = h;
         } else h = holder;
         final ArrayList<E> partition = new ArrayList<>();
         final Object partitionKey = partitionBy.apply(h.value);
         boolean didAdvance;
         do partition.add(h.value);
-        while ((didAdvance = spliterator.tryAdvance(h))
+        while ((didAdvance = nextElement(h))
                 && Objects.equals(partitionBy.apply(h.value), partitionKey));
         if (!didAdvance) holder = null;
         action.accept(partition);
         return true;
     }
 
+    @Override
+    public Spliterator<List<E>> trySplit() {
+        final Spliterator<E> prefix = spliterator.trySplit();
+        if (prefix == null) return super.trySplit();
+        final HoldingConsumer<E> h = new HoldingConsumer<>();
+        final List<E> boundaryRun = new ArrayList<>();
+        boolean didAdvance = spliterator.tryAdvance(h);
+        if (didAdvance) {
+            final Object runKey = partitionBy.apply(h.value);
+            do boundaryRun.add(h.value);
+            while ((didAdvance = spliterator.tryAdvance(h))
+                    && Objects.equals(partitionBy.apply(h.value), runKey));
+        }
+        final List<E> prefixTail;
+        if (didAdvance) {
+            prefixTail = boundaryRun;
+        } else {
+            // the suffix was a single run: everything left belongs to the prefix
+            prefixTail = remainingTail(boundaryRun);
+            tail = null;
+        }
+        final PartitionBySpliterator<E> left = new PartitionBySpliterator<>(prefix, partitionBy, holder, prefixTail);
+        holder = didAdvance ? h : null;
+        return left;
+    }
+
+    @Override
+    public long estimateSize() {
+        final long est = spliterator.estimateSize();
+        return est == Long.MAX_VALUE || tail == null ? est : est + tail.size() - tailIndex;
+    }
+
+    private boolean nextElement(HoldingConsumer<E> h) {
+        if (spliterator.tryAdvance(h)) return true;
+        if (tail == null || tailIndex >= tail.size()) return false;
+        h.value = tail.get(tailIndex++);
+        return true;
+    }
+
+    private List<E> remainingTail(List<E> head) {
+        if (tail != null) head.addAll(tail.subList(tailIndex, tail.size()));
+        return head;
+    }
+
     static final class HoldingConsumer<T> implements Consumer<T> {
         T value;
 
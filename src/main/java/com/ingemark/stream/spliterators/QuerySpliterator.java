@@ -0,0 +1,112 @@
+package com.ingemark.stream.spliterators;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the hits of an arbitrary {@code Query} in index order, without collecting them
+ * first. The query is turned into a {@code Weight} once, and each segment's
+ * {@code Scorer} is created only when the stream reaches that segment, so nothing beyond
+ * the current batch is held in memory. Deleted documents are skipped.
+ * <p/>
+ * Like {@link SegmentTermDocsSpliterator}, this spliterator splits by dividing the
+ * segments between the two halves. Because the number of hits per segment is not known
+ * until its scorer is created, the estimated size is the segments' document count.
+ * <p/>
+ * When a maximum number of hits per segment is given, each segment stops being scored
+ * once it has produced that many hits. {@link #firstHits} uses this to find the first
+ * {@code k} hits in index order with early termination in every segment. Note that these
+ * are not the {@code k} best-scoring hits.
+ */
+public class QuerySpliterator extends FixedBatchSpliteratorBase<ScoreDoc> {
+    private final LeafDocs docs;
+    private final boolean needsScores;
+    private final int maxHitsPerLeaf;
+    private LeafReaderContext leaf;
+    private int leafHits;
+
+    public QuerySpliterator(IndexSearcher searcher, Query query, boolean needsScores) {
+        this(searcher, query, needsScores, Integer.MAX_VALUE);
+    }
+
+    public QuerySpliterator(IndexSearcher searcher, Query query, boolean needsScores, int maxHitsPerLeaf) {
+        this(leafDocs(searcher, query, needsScores, maxHitsPerLeaf), needsScores, maxHitsPerLeaf);
+    }
+
+    private QuerySpliterator(LeafDocs docs, boolean needsScores, int maxHitsPerLeaf) {
+        super(ORDERED | NONNULL | DISTINCT, DEFAULT_BATCH_SIZE, docs.estimateSize());
+        if (maxHitsPerLeaf <= 0) throw new IllegalArgumentException(
+                "Maximum hits per leaf must be positive, but was " + maxHitsPerLeaf);
+        this.docs = docs;
+        this.needsScores = needsScores;
+        this.maxHitsPerLeaf = maxHitsPerLeaf;
+    }
+
+    public static Stream<ScoreDoc> queryStream(IndexSearcher searcher, Query query, boolean needsScores) {
+        return StreamSupport.stream(new QuerySpliterator(searcher, query, needsScores), false);
+    }
+
+    /**
+     * Streams the first {@code k} hits of the query in index order.
+     */
+    public static Stream<ScoreDoc> firstHits(IndexSearcher searcher, Query query, int k, boolean needsScores) {
+        return StreamSupport.stream(new QuerySpliterator(searcher, query, needsScores, k), false).limit(k);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ScoreDoc> action) {
+        while (true) {
+            if (!docs.nextDoc()) return false;
+            if (docs.leaf() != leaf) {
+                leaf = docs.leaf();
+                leafHits = 0;
+            }
+            if (leafHits++ < maxHitsPerLeaf) break;
+            docs.skipLeaf();
+        }
+        try {
+            final float score = needsScores ? ((Scorer) docs.docs()).score() : Float.NaN;
+            action.accept(new ScoreDoc(leaf.docBase + docs.doc(), score));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<ScoreDoc> trySplit() {
+        final LeafDocs prefix = docs.trySplit();
+        if (prefix == null) return super.trySplit();
+        final QuerySpliterator split = new QuerySpliterator(prefix, needsScores, maxHitsPerLeaf);
+        split.leaf = leaf;
+        split.leafHits = leafHits;
+        leaf = null;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return docs.estimateSize();
+    }
+
+    private static LeafDocs leafDocs(IndexSearcher searcher, Query query, boolean needsScores, int maxHitsPerLeaf) {
+        try {
+            final Weight weight = searcher.createNormalizedWeight(query, needsScores);
+            return new LeafDocs(searcher.getIndexReader().leaves(), weight::scorer,
+                    leaf -> Math.min(maxHitsPerLeaf, leaf.reader().numDocs()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
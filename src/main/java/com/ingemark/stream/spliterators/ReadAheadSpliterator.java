@@ -0,0 +1,227 @@
+package com.ingemark.stream.spliterators;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Drains a {@link FixedBatchSpliteratorBase} on a dedicated producer thread into a
+ * bounded queue of prefilled batches. {@link #trySplit} hands out the next ready batch,
+ * so fetching from a sequential I/O source overlaps with the processing of previously
+ * fetched batches and no ForkJoin worker is blocked on I/O while the queue is non-empty.
+ * <p/>
+ * At most {@code batchesInFlight} batches are held in the queue, which bounds the memory
+ * taken by elements fetched ahead of the stream pipeline. The producer thread is started
+ * lazily on first access and terminates once the source is exhausted or this spliterator
+ * is {@link #close closed}. The source is always closed on the producer thread after it
+ * has stopped fetching. An exception thrown by the source is rethrown to the consumer
+ * when it reaches the point in the sequence where the failure occurred. A consumer
+ * interrupted while waiting for a batch closes this spliterator and fails with an
+ * {@code IllegalStateException}, keeping its interrupt status.
+ *
+ * @param <T> the type of elements produced by this spliterator
+ */
+public class ReadAheadSpliterator<T> implements Spliterator<T> {
+    public static final int DEFAULT_BATCHES_IN_FLIGHT = 4;
+    private static final Object END = new Object();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final FixedBatchSpliteratorBase<T> source;
+    private final Runnable closeSource;
+    private final BlockingQueue<Object> queue;
+    private Thread producer;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private boolean done;
+    private Spliterator<T> current;
+
+    /**
+     * Creates a read-ahead spliterator over the given source.
+     *
+     * @param source          the sequential source; its {@code trySplit} will be called
+     *                        on the producer thread to fill each batch
+     * @param batchesInFlight the maximum number of prefilled batches waiting to be consumed
+     * @param closeSource     action releasing the resources of the source. Invoked exactly
+     *                        once, on the producer thread if it was started.
+     */
+    public ReadAheadSpliterator(FixedBatchSpliteratorBase<T> source, int batchesInFlight, Runnable closeSource) {
+        if (batchesInFlight <= 0) throw new IllegalArgumentException(
+                "Batches in flight must be positive, but was " + batchesInFlight);
+        this.source = source;
+        this.closeSource = closeSource;
+        this.queue = new ArrayBlockingQueue<>(batchesInFlight);
+    }
+
+    public ReadAheadSpliterator(FixedBatchSpliteratorBase<T> source, int batchesInFlight) {
+        this(source, batchesInFlight, () -> { });
+    }
+
+    public ReadAheadSpliterator(FixedBatchSpliteratorBase<T> source) {
+        this(source, DEFAULT_BATCHES_IN_FLIGHT);
+    }
+
+    /**
+     * Wraps a scrollable results spliterator such that closing the read-ahead
+     * spliterator closes the underlying {@code ScrollableResults}.
+     */
+    public static <T> ReadAheadSpliterator<T> readAhead(ScrollableResultsSpliterator<T> source, int batchesInFlight) {
+        return new ReadAheadSpliterator<>(source, batchesInFlight, source::close);
+    }
+
+    /**
+     * Returns an initially sequential {@code Stream} based on the supplied read-ahead
+     * spliterator. Closing the stream will invoke {@link #close} on the spliterator.
+     *
+     * @param spliterator the spliterator.
+     * @return a {@code Stream} of elements produced by the spliterator.
+     */
+    public static <T> Stream<T> resultStream(ReadAheadSpliterator<T> spliterator) {
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (true) {
+            if (current == null && (current = nextBatch()) == null) return false;
+            if (current.tryAdvance(action)) return true;
+            current = null;
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        if (current != null) {
+            current.forEachRemaining(action);
+            current = null;
+        }
+        for (Spliterator<T> batch; (batch = nextBatch()) != null; ) batch.forEachRemaining(action);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation returns the next batch prefilled by the producer thread,
+     * blocking only if the producer has not yet caught up.
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        if (current != null) {
+            final Spliterator<T> partial = current;
+            current = null;
+            return partial;
+        }
+        return nextBatch();
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return source.characteristics() & ~(SIZED | SUBSIZED);
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return source.getComparator();
+    }
+
+    /**
+     * Stops the producer thread, discards all prefilled batches and waits until the
+     * source has been closed. May be called from any thread. A consumer waiting for a
+     * batch is released; after this method is called, no further batches are handed out,
+     * so traversal ends with the batch in progress.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        final Thread p;
+        synchronized (this) {
+            p = producer;
+            if (p == null) producer = Thread.currentThread();
+        }
+        if (p == null) {
+            closeSource.run();
+        } else {
+            p.interrupt();
+            queue.clear();
+            try {
+                p.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the producer stops without ending the sequence, so end it for a waiting consumer
+        queue.clear();
+        queue.offer(END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Spliterator<T> nextBatch() {
+        if (done) return null;
+        if (closed.get()) {
+            done = true;
+            return null;
+        }
+        start();
+        final Object o;
+        try {
+            o = queue.take();
+        } catch (InterruptedException e) {
+            // returning null would pass for the end of the data and silently truncate the stream
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next read-ahead batch", e);
+        }
+        if (o == END) {
+            done = true;
+            return null;
+        }
+        if (o instanceof Failure) {
+            done = true;
+            final Throwable t = ((Failure) o).cause;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            if (t instanceof Error) throw (Error) t;
+            throw new IllegalStateException("Read-ahead of the source failed", t);
+        }
+        return (Spliterator<T>) o;
+    }
+
+    private synchronized void start() {
+        if (producer != null) return;
+        producer = new Thread(this::produce, "read-ahead-" + threadCount.incrementAndGet());
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            for (Spliterator<T> batch; !closed.get() && (batch = source.trySplit()) != null; ) queue.put(batch);
+            if (!closed.get()) queue.put(END);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (Throwable t) {
+            try {
+                if (!closed.get()) queue.put(new Failure(t));
+            } catch (InterruptedException e) {
+                // closed by the consumer
+            }
+        } finally {
+            closeSource.run();
+        }
+    }
+
+    private static final class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
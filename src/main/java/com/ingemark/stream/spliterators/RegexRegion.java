@@ -0,0 +1,89 @@
+package com.ingemark.stream.spliterators;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The part of a {@code CharSequence} still to be matched by a regex spliterator. A region
+ * can be split in two at an occurrence of the boundary character close to its middle so
+ * that both halves can be matched independently. Matching uses transparent, non-anchoring
+ * bounds, so anchors and lookarounds see the same input as they would without splitting.
+ * <p/>
+ * The matches are the same as those of a single {@code Matcher} over the whole input,
+ * including empty ones: an empty match at the end of the input is found, while one at the
+ * end of a split-off region is left to the region that follows, where it starts. After an
+ * empty match the search continues one character further, also across a split.
+ */
+final class RegexRegion {
+    static final char NO_BOUNDARY = '\uffff';
+    static final int MIN_REGION_LENGTH = 1 << 14;
+
+    private final Pattern pattern;
+    private final CharSequence input;
+    private final char boundary;
+    private final Matcher matcher;
+    private int from;
+    private final int to;
+    private boolean emptyMatchAtFrom;
+    private boolean exhausted;
+
+    private RegexRegion(Pattern pattern, CharSequence input, char boundary, int from, int to, boolean skipFrom) {
+        this.pattern = pattern;
+        this.input = input;
+        this.boundary = boundary;
+        this.from = from;
+        this.to = to;
+        this.emptyMatchAtFrom = skipFrom;
+        this.matcher = pattern.matcher(input)
+                              .useTransparentBounds(true)
+                              .useAnchoringBounds(false)
+                              .region(skipFrom ? from + 1 : from, to);
+    }
+
+    RegexRegion(Pattern pattern, CharSequence input, char boundary) {
+        this(pattern, input, boundary, 0, input.length(), false);
+    }
+
+    /**
+     * Finds the next match, which is then available through {@link #matcher()}.
+     */
+    boolean find() {
+        if (exhausted) return false;
+        if (!matcher.find() || matcher.start() == to && to < input.length()) {
+            exhausted = true;
+            from = to;
+            return false;
+        }
+        from = matcher.end();
+        emptyMatchAtFrom = matcher.start() == from;
+        return true;
+    }
+
+    Matcher matcher() {
+        return matcher;
+    }
+
+    int remaining() {
+        return to - from;
+    }
+
+    /**
+     * Splits off the first half of the remaining region, ending just after an occurrence
+     * of the boundary character, or returns {@code null} if the region is too short or
+     * no boundary is found.
+     */
+    RegexRegion trySplit() {
+        if (boundary == NO_BOUNDARY || exhausted || to - from < 2 * MIN_REGION_LENGTH) return null;
+        final int mid = from + (to - from) / 2;
+        int cut = -1;
+        for (int i = mid; i < to - 1; i++) if (input.charAt(i) == boundary) { cut = i + 1; break; }
+        if (cut == -1) for (int i = mid - 1; i > from; i--) if (input.charAt(i) == boundary) { cut = i + 1; break; }
+        if (cut == -1) return null;
+        // resetting a matcher loses the bump past an empty match, so the prefix skips it itself
+        final RegexRegion prefix = new RegexRegion(pattern, input, boundary, from, cut, emptyMatchAtFrom);
+        from = cut;
+        emptyMatchAtFrom = false;
+        matcher.region(from, to);
+        return prefix;
+    }
+}
@@ -1,29 +1,121 @@
 package com.ingemark.stream.spliterators;
 
+import java.util.Spliterator;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
+import java.util.function.LongConsumer;
 import java.util.regex.Pattern;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static com.ingemark.stream.spliterators.RegexRegion.NO_BOUNDARY;
+
+/**
+ * Produces the substrings of a {@code CharSequence} matched by a regular expression.
+ * <p/>
+ * When created with a boundary character, {@link #trySplit} divides the remaining input
+ * into two regions at an occurrence of that character near the middle, so large inputs
+ * are matched in parallel. This is safe as long as no match spans a boundary, for
+ * example splitting at {@code '\n'} for patterns which never match across lines. Without
+ * a boundary, or once the regions become short, this spliterator splits off batches of
+ * its strict prefix. The estimated size is the number of characters left to match.
+ * <p/>
+ * {@link Offsets} is the allocation-free counterpart which produces the start and end
+ * offsets of each match packed into one {@code long}.
+ */
 public class RegexSpliterator extends FixedBatchSpliteratorBase<String> {
-    private final Matcher matcher;
+    private final RegexRegion region;
 
     public RegexSpliterator(Pattern p, String s) {
-        super(ORDERED | NONNULL | IMMUTABLE, 64, Integer.MAX_VALUE);
-        this.matcher = p.matcher(s);
+        this(new RegexRegion(p, s, NO_BOUNDARY));
+    }
+
+    public RegexSpliterator(Pattern p, CharSequence s, char boundary) {
+        this(new RegexRegion(p, s, boundary));
+    }
+
+    private RegexSpliterator(RegexRegion region) {
+        super(ORDERED | NONNULL | IMMUTABLE, DEFAULT_BATCH_SIZE, region.remaining());
+        this.region = region;
     }
 
     public static Stream<String> resultStream(RegexSpliterator spliterator) {
         return StreamSupport.stream(spliterator, false);
     }
 
+    public static Stream<String> matches(Pattern p, CharSequence s, char boundary) {
+        return resultStream(new RegexSpliterator(p, s, boundary));
+    }
+
+    /**
+     * Streams the offsets of all matches, each packed as by {@link #offsets(int, int)}.
+     */
+    public static LongStream matchOffsets(Pattern p, CharSequence s, char boundary) {
+        return StreamSupport.longStream(new Offsets(new RegexRegion(p, s, boundary)), false);
+    }
+
+    public static long offsets(int start, int end) {
+        return (long) start << 32 | end;
+    }
+
+    public static int start(long offsets) {
+        return (int) (offsets >>> 32);
+    }
+
+    public static int end(long offsets) {
+        return (int) offsets;
+    }
+
     @Override
     public boolean tryAdvance(Consumer<? super String> action) {
-        if (!matcher.find()) return false;
-        action.accept(matcher.group());
+        if (!region.find()) return false;
+        action.accept(region.matcher().group());
         return true;
     }
 
+    @Override
+    public Spliterator<String> trySplit() {
+        final RegexRegion prefix = region.trySplit();
+        return prefix != null ? new RegexSpliterator(prefix) : super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return region.remaining();
+    }
 
+    /**
+     * Produces the start and end offsets of the matches, packed into a {@code long} by
+     * {@link #offsets(int, int)}, in ascending order.
+     */
+    public static class Offsets extends FixedBatchSpliteratorBase.OfLong {
+        private final RegexRegion region;
+
+        public Offsets(Pattern p, CharSequence s, char boundary) {
+            this(new RegexRegion(p, s, boundary));
+        }
+
+        private Offsets(RegexRegion region) {
+            super(ORDERED | SORTED | DISTINCT | NONNULL | IMMUTABLE, DEFAULT_BATCH_SIZE, region.remaining());
+            this.region = region;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (!region.find()) return false;
+            action.accept(offsets(region.matcher().start(), region.matcher().end()));
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            final RegexRegion prefix = region.trySplit();
+            return prefix != null ? new Offsets(prefix) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return region.remaining();
+        }
+    }
 }
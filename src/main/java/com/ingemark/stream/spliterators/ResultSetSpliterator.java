@@ -0,0 +1,133 @@
+package com.ingemark.stream.spliterators;
+
+import org.hibernate.exception.GenericJDBCException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+
+/**
+ * Adapts a JDBC {@code ResultSet} into a {@code Spliterator} which splits off batches of
+ * its strict prefix, like {@link ScrollableResultsSpliterator}, but without Hibernate in
+ * between: each row is turned into an element by a {@link RowMapper} reading the columns
+ * directly. {@link RowMappers} provides compiled mappers to plain classes.
+ * <p/>
+ * The spliterator owns the statement and result set and closes them when the rows are
+ * exhausted or {@link #close} is called. The connection is borrowed and left open. For
+ * the driver to stream the rows instead of loading all of them up front, the connection
+ * usually must not be in auto-commit mode.
+ *
+ * @param <T> The type of elements produced by this Spliterator
+ */
+public class ResultSetSpliterator<T> extends FixedBatchSpliteratorBase<T> {
+    private final PreparedStatement statement;
+    private final ResultSet rs;
+    private final RowMapper<? extends T> mapper;
+    private final String sql;
+    private boolean closed;
+
+    /**
+     * Creates a spliterator over the results of an executed statement.
+     *
+     * @param statement the statement, which will be closed along with the spliterator.
+     * @param rs        the statement's result set.
+     * @param mapper    maps the current row of the result set to an element.
+     * @param batchSize this spliterator's batch size.
+     * @param sql       the statement's SQL, for error messages.
+     */
+    public ResultSetSpliterator(PreparedStatement statement, ResultSet rs, RowMapper<? extends T> mapper,
+                                int batchSize, String sql) {
+        super(ORDERED | NONNULL, batchSize);
+        this.statement = statement;
+        this.rs = rs;
+        this.mapper = mapper;
+        this.sql = sql;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) return false;
+        final T elem;
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            elem = mapper.map(rs);
+        } catch (SQLException e) {
+            close();
+            throw new GenericJDBCException("Failed reading a row", e, sql);
+        }
+        action.accept(elem);
+        return true;
+    }
+
+    /**
+     * Closes the result set and the statement. After this method is called,
+     * {@code tryAdvance} will always return {@code false}.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            throw new GenericJDBCException("Failed closing a statement", e, sql);
+        }
+    }
+
+    /**
+     * Runs the given query on the borrowed connection and returns a stream of its rows
+     * mapped to instances of the given class by {@link RowMappers#forClass}. Closing the
+     * stream closes the statement, but not the connection.
+     *
+     * @param clazz      the type of the stream elements.
+     * @param connection the connection to run the query on.
+     * @param fetchSize  the number of rows fetched per round-trip to the database.
+     * @param sql        the query.
+     * @param params     the values of the query's parameters.
+     * @return a {@code Stream} of elements mapped from the query's rows.
+     */
+    public static <T> Stream<T> resultStream(Class<T> clazz, Connection connection, int fetchSize,
+                                             String sql, Object... params) {
+        if (fetchSize <= 0) throw new IllegalArgumentException("Fetch size must be positive, but was " + fetchSize);
+        try {
+            final PreparedStatement ps = connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY);
+            try {
+                ps.setFetchSize(fetchSize);
+                for (int i = 0; i < params.length; i++) ps.setObject(i + 1, params[i]);
+                final ResultSet rs = ps.executeQuery();
+                final RowMapper<T> mapper = RowMappers.forClass(clazz, rs.getMetaData());
+                return resultStream(new ResultSetSpliterator<>(ps, rs, mapper, DEFAULT_BATCH_SIZE, sql));
+            } catch (SQLException | RuntimeException e) {
+                ps.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new GenericJDBCException("Failed executing a query", e, sql);
+        }
+    }
+
+    /**
+     * Returns an initially sequential {@code Stream} based on the supplied spliterator.
+     * Closing the stream will invoke {@link #close} on the spliterator.
+     */
+    public static <T> Stream<T> resultStream(ResultSetSpliterator<T> spliterator) {
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Maps the current row of a {@code ResultSet} to an object.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+}
@@ -0,0 +1,239 @@
+package com.ingemark.stream.spliterators;
+
+import com.ingemark.stream.spliterators.ResultSetSpliterator.RowMapper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Creates {@link RowMapper}s which map the columns of a {@code ResultSet} to instances of
+ * a class. The mapping is compiled once into a method handle per class and column set and
+ * cached, so mapping a row involves neither reflection nor intermediate arrays.
+ * <p/>
+ * Three kinds of target classes are supported, tried in this order:
+ * <ol>
+ * <li>a simple type such as {@code String}, {@code Long} or {@code BigDecimal}, for a
+ * result with a single column;</li>
+ * <li>a class with a public constructor taking one argument per column, which receives
+ * the columns by position;</li>
+ * <li>a class with a public no-argument constructor and public non-final fields, which
+ * receive the columns by name. Names are matched ignoring case and underscores, so a
+ * column {@code created_at_} fills the field {@code createdAt}. Columns without a
+ * matching field are ignored.</li>
+ * </ol>
+ * Each column is read with the {@code ResultSet} getter for the type it is bound to:
+ * primitives with their primitive getters, which yield zero for SQL {@code NULL}; their
+ * wrappers with the same getters, but yielding {@code null}; and any other type with
+ * {@code getObject(int, Class)}, unless it has a getter of its own.
+ */
+public final class RowMappers {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+    private static final Map<Class<?>, String> GETTERS = new HashMap<>();
+    private static final Map<Class<?>, Class<?>> BOXES = new HashMap<>();
+    private static final Map<Key, RowMapper<?>> CACHE = new ConcurrentHashMap<>();
+
+    static {
+        GETTERS.put(boolean.class, "getBoolean");
+        GETTERS.put(byte.class, "getByte");
+        GETTERS.put(short.class, "getShort");
+        GETTERS.put(int.class, "getInt");
+        GETTERS.put(long.class, "getLong");
+        GETTERS.put(float.class, "getFloat");
+        GETTERS.put(double.class, "getDouble");
+        GETTERS.put(String.class, "getString");
+        GETTERS.put(BigDecimal.class, "getBigDecimal");
+        GETTERS.put(byte[].class, "getBytes");
+        GETTERS.put(Date.class, "getDate");
+        GETTERS.put(Time.class, "getTime");
+        GETTERS.put(Timestamp.class, "getTimestamp");
+        BOXES.put(Boolean.class, boolean.class);
+        BOXES.put(Byte.class, byte.class);
+        BOXES.put(Short.class, short.class);
+        BOXES.put(Integer.class, int.class);
+        BOXES.put(Long.class, long.class);
+        BOXES.put(Float.class, float.class);
+        BOXES.put(Double.class, double.class);
+    }
+
+    private RowMappers() {
+    }
+
+    /**
+     * Returns a mapper of rows with the given columns to instances of the given class.
+     *
+     * @throws IllegalArgumentException if the class cannot receive the columns.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> forClass(Class<T> clazz, ResultSetMetaData md) throws SQLException {
+        final String[] labels = new String[md.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) labels[i] = md.getColumnLabel(i + 1);
+        return (RowMapper<T>) CACHE.computeIfAbsent(new Key(clazz, labels), k -> compile(clazz, labels));
+    }
+
+    private static RowMapper<?> compile(Class<?> clazz, String[] labels) {
+        try {
+            if (labels.length == 1 && isSimple(clazz)) return new HandleMapper(column(clazz, 1));
+            for (Constructor<?> c : clazz.getConstructors()) {
+                if (c.getParameterCount() == labels.length && c.getParameterCount() > 0) return constructorMapper(c);
+            }
+            return fieldMapper(clazz, labels);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot map rows to " + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Composes the constructor with one column getter per parameter into a handle of
+     * type {@code (ResultSet)Object}.
+     */
+    private static RowMapper<?> constructorMapper(Constructor<?> c) throws ReflectiveOperationException {
+        final Class<?>[] types = c.getParameterTypes();
+        final MethodHandle[] getters = new MethodHandle[types.length];
+        for (int i = 0; i < types.length; i++) getters[i] = column(types[i], i + 1);
+        final MethodHandle filtered = MethodHandles.filterArguments(LOOKUP.unreflectConstructor(c), 0, getters);
+        // every parameter now takes a ResultSet; feed all of them from the single argument
+        return new HandleMapper(MethodHandles.permuteArguments(filtered,
+                methodType(c.getDeclaringClass(), ResultSet.class), new int[types.length]));
+    }
+
+    private static RowMapper<?> fieldMapper(Class<?> clazz, String[] labels) throws ReflectiveOperationException {
+        final Map<String, Field> fields = new HashMap<>();
+        for (Field f : clazz.getFields()) {
+            if (!Modifier.isStatic(f.getModifiers()) && !Modifier.isFinal(f.getModifiers())) {
+                fields.put(normalize(f.getName()), f);
+            }
+        }
+        final List<MethodHandle> setters = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            final Field f = fields.get(normalize(labels[i]));
+            if (f == null) continue;
+            // (Object target, ResultSet rs)void
+            setters.add(MethodHandles.filterArguments(LOOKUP.unreflectSetter(f), 1, column(f.getType(), i + 1))
+                                     .asType(methodType(void.class, Object.class, ResultSet.class)));
+        }
+        if (setters.isEmpty()) throw new IllegalArgumentException(
+                "No public field of " + clazz.getName() + " matches the columns " + Arrays.toString(labels));
+        final MethodHandle constructor = LOOKUP.findConstructor(clazz, methodType(void.class))
+                                               .asType(methodType(Object.class));
+        return new FieldMapper(constructor, setters.toArray(new MethodHandle[setters.size()]));
+    }
+
+    /**
+     * Returns a handle of type {@code (ResultSet)type} reading the given column.
+     */
+    private static MethodHandle column(Class<?> type, int column) throws ReflectiveOperationException {
+        final String getter = GETTERS.get(type);
+        if (getter != null) {
+            final MethodHandle h = LOOKUP.findVirtual(ResultSet.class, getter, methodType(type, int.class));
+            return MethodHandles.insertArguments(h, 1, column);
+        }
+        final Class<?> primitive = BOXES.get(type);
+        if (primitive != null) {
+            // the primitive getter followed by wasNull(), which drivers support more widely than getObject(int, Class)
+            final MethodHandle h = MethodHandles.lookup().findStatic(RowMappers.class, "boxed",
+                    methodType(Object.class, MethodHandle.class, ResultSet.class));
+            final MethodHandle unboxed = column(primitive, column).asType(methodType(Object.class, ResultSet.class));
+            return MethodHandles.insertArguments(h, 0, unboxed).asType(methodType(type, ResultSet.class));
+        }
+        final MethodHandle h = LOOKUP.findVirtual(ResultSet.class, "getObject",
+                methodType(Object.class, int.class, Class.class));
+        return MethodHandles.insertArguments(h, 1, column, type).asType(methodType(type, ResultSet.class));
+    }
+
+    private static Object boxed(MethodHandle getter, ResultSet rs) throws Throwable {
+        final Object value = getter.invokeExact(rs);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static boolean isSimple(Class<?> clazz) {
+        return GETTERS.containsKey(clazz) || clazz.isPrimitive() || Number.class.isAssignableFrom(clazz)
+                || clazz == Boolean.class || clazz == Character.class || clazz.getName().startsWith("java.time.");
+    }
+
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static final class HandleMapper implements RowMapper<Object> {
+        private final MethodHandle handle;
+
+        HandleMapper(MethodHandle handle) {
+            this.handle = handle.asType(methodType(Object.class, ResultSet.class));
+        }
+
+        @Override
+        public Object map(ResultSet rs) throws SQLException {
+            try {
+                return handle.invokeExact(rs);
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class FieldMapper implements RowMapper<Object> {
+        private final MethodHandle constructor;
+        private final MethodHandle[] setters;
+
+        FieldMapper(MethodHandle constructor, MethodHandle[] setters) {
+            this.constructor = constructor;
+            this.setters = setters;
+        }
+
+        @Override
+        public Object map(ResultSet rs) throws SQLException {
+            try {
+                final Object target = constructor.invokeExact();
+                for (MethodHandle setter : setters) setter.invokeExact(target, rs);
+                return target;
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> clazz;
+        private final String[] labels;
+
+        Key(Class<?> clazz, String[] labels) {
+            this.clazz = clazz;
+            this.labels = labels;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            final Key that = (Key) o;
+            return clazz == that.clazz && Arrays.equals(labels, that.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clazz.hashCode() + Arrays.hashCode(labels);
+        }
+    }
+}
@@ -29,12 +29,27 @@ import static org.hibernate.ScrollMode.FORWARD_ONLY;
  * <li>the batch size is appropriately chosen such that the processing of one batch takes
  * about 1 to 10 milliseconds (fetch time is not included in this).</li>
  * </ol>
+ * <p/>
+ * The JDBC fetch size is tuned while the rows are read: it grows as long as that reduces
+ * the time spent per row, but only so far that one fetch of rows of the observed width
+ * fits into a memory budget. The fetch size a query has settled on is used as the
+ * starting point the next time the same query is scrolled through this class. See
+ * {@link #setAdaptiveFetchSize(long, int, int) setAdaptiveFetchSize}.
  *
  * @param <T> The type of elements produced by this Spliterator
  * @author Marko Topolnik
  */
 public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T> {
+    public static final long DEFAULT_FETCH_MEMORY_BUDGET = 8 << 20;
+    public static final int DEFAULT_MIN_FETCH_SIZE = 10;
+    public static final int DEFAULT_MAX_FETCH_SIZE = 10_000;
     private final ScrollableResults results;
+    private final String query;
+    private long fetchMemoryBudget = DEFAULT_FETCH_MEMORY_BUDGET;
+    private int minFetchSize = DEFAULT_MIN_FETCH_SIZE;
+    private int maxFetchSize = DEFAULT_MAX_FETCH_SIZE;
+    private FetchSizeTuner tuner;
+    private boolean started;
     private boolean closed;
     private Boolean canUnwrap;
 
@@ -48,7 +63,7 @@ public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T
      * @param q the Hibernate query.
      */
     public ScrollableResultsSpliterator(Class<T> clazz, Query q) {
-        this(clazz, q.scroll(FORWARD_ONLY));
+        this(clazz, DEFAULT_BATCH_SIZE, q);
     }
 
     /**
@@ -90,7 +105,7 @@ public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T
      * @param query     the Hibernate query.
      */
     public ScrollableResultsSpliterator(Class<T> clazz, int batchSize, Query query) {
-        this(clazz, batchSize, query.scroll(FORWARD_ONLY));
+        this(batchSize, scroll(query), query.getQueryString());
     }
 
     /**
@@ -119,9 +134,36 @@ public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T
      * @param results   the Hibernate scrollable results.
      */
     public ScrollableResultsSpliterator(Class<T> clazz, int batchSize, ScrollableResults results) {
+        this(batchSize, results, null);
+    }
+
+    private ScrollableResultsSpliterator(int batchSize, ScrollableResults results, String query) {
         super(ORDERED | NONNULL, batchSize);
         if (results == null) throw new NullPointerException("ScrollableResults must not be null");
         this.results = results;
+        this.query = query;
+    }
+
+    /**
+     * Sets the limits within which the JDBC fetch size is tuned. Must be called before
+     * traversal begins. A memory budget of zero disables tuning and leaves the fetch size
+     * as configured on the query.
+     *
+     * @param memoryBudget the number of bytes one fetch of rows may take up, as estimated
+     *                     from the width of the rows read so far.
+     * @param minFetchSize the minimum fetch size.
+     * @param maxFetchSize the maximum fetch size.
+     */
+    public void setAdaptiveFetchSize(long memoryBudget, int minFetchSize, int maxFetchSize) {
+        if (memoryBudget < 0) throw new IllegalArgumentException(
+                "Memory budget must not be negative, but was " + memoryBudget);
+        if (minFetchSize <= 0) throw new IllegalArgumentException(
+                "Minimum fetch size must be positive, but was " + minFetchSize);
+        if (maxFetchSize < minFetchSize) throw new IllegalArgumentException(
+                "Maximum fetch size must not be less than " + minFetchSize + ", but was " + maxFetchSize);
+        this.fetchMemoryBudget = memoryBudget;
+        this.minFetchSize = minFetchSize;
+        this.maxFetchSize = maxFetchSize;
     }
 
     /**
@@ -136,10 +178,18 @@ public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T
     @Override
     public boolean tryAdvance(Consumer<? super T> action) {
         if (closed) return false;
+        if (!started) {
+            started = true;
+            if (fetchMemoryBudget > 0) {
+                tuner = FetchSizeTuner.of(results, query, fetchMemoryBudget, minFetchSize, maxFetchSize);
+            }
+        }
+        final long start = tuner != null ? System.nanoTime() : 0;
         if (!results.next()) {
             close();
             return false;
         }
+        if (tuner != null) tuner.rowRead(System.nanoTime() - start, tuner.wantsSample() ? results.get() : null);
         if (canUnwrap == null) {
             final Object[] r = results.get();
             canUnwrap = r.length == 1;
@@ -155,11 +205,22 @@ public class ScrollableResultsSpliterator<T> extends FixedBatchSpliteratorBase<T
      */
     public void close() {
         if (!closed) {
+            if (tuner != null) tuner.done();
             results.close();
             closed = true;
         }
     }
 
+    /**
+     * Scrolls through the query's results, starting out with the fetch size tuned on its
+     * earlier executions, if any.
+     */
+    private static ScrollableResults scroll(Query query) {
+        final int fetchSize = FetchSizeTuner.tunedFetchSize(query.getQueryString());
+        if (fetchSize > 0) query.setFetchSize(fetchSize);
+        return query.scroll(FORWARD_ONLY);
+    }
+
     /**
      * Builds a {@code Stream} backed by {@code ScrollableResults} obtained from the given
      * {@code Query}. Convenience around
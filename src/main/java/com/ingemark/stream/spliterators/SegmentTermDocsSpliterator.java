@@ -0,0 +1,65 @@
+package com.ingemark.stream.spliterators;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Produces the stored fields of the documents containing a term, visiting the index one
+ * segment at a time. Unlike {@link TermDocsSpliterator}, deleted documents are skipped
+ * and {@link #trySplit} divides the segments between the two halves, so a parallel stream
+ * reads several segments at once. Within a single segment this spliterator splits off
+ * batches of its strict prefix. The estimated size is the sum of the term's document
+ * frequencies in the remaining segments, which counts deleted documents as well.
+ */
+public class SegmentTermDocsSpliterator extends FixedBatchSpliteratorBase<Document> {
+    private final LeafDocs docs;
+    private final Set<String> fieldsToLoad;
+
+    public SegmentTermDocsSpliterator(IndexReader reader, Term term, Set<String> fieldsToLoad) {
+        this(new LeafDocs(reader.leaves(),
+                leaf -> leaf.reader().postings(term, PostingsEnum.NONE),
+                leaf -> leaf.reader().docFreq(term)), fieldsToLoad);
+    }
+
+    private SegmentTermDocsSpliterator(LeafDocs docs, Set<String> fieldsToLoad) {
+        super(ORDERED | NONNULL | DISTINCT, DEFAULT_BATCH_SIZE, docs.estimateSize());
+        this.docs = docs;
+        this.fieldsToLoad = fieldsToLoad;
+    }
+
+    public static Stream<Document> termDocs(IndexReader reader, Term term, Set<String> fieldsToLoad) {
+        return StreamSupport.stream(new SegmentTermDocsSpliterator(reader, term, fieldsToLoad), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Document> action) {
+        if (!docs.nextDoc()) return false;
+        try {
+            action.accept(docs.leaf().reader().document(docs.doc(), fieldsToLoad));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<Document> trySplit() {
+        final LeafDocs prefix = docs.trySplit();
+        return prefix != null ? new SegmentTermDocsSpliterator(prefix, fieldsToLoad) : super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return docs.estimateSize();
+    }
+}
@@ -0,0 +1,247 @@
+package com.ingemark.stream.spliterators;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.ingemark.stream.util.Util.logger;
+
+/**
+ * Exposes a spliterator as a Reactive Streams {@code Publisher}, pulling elements only
+ * as the subscriber requests them.
+ * <p/>
+ * Elements are pulled with {@code tryAdvance} and delivered to {@code onNext} on the
+ * executor, in runs of at most one batch, after which the run yields the executor thread
+ * and resubmits itself while demand remains. The batch size is that of a
+ * {@link FixedBatchSpliteratorBase}, or {@link FixedBatchSpliteratorBase#DEFAULT_BATCH_SIZE}
+ * for other spliterators. Since nothing is pulled without demand, a slow subscriber
+ * throttles the source, be it a database cursor or an index scan, and no elements are
+ * buffered.
+ * <p/>
+ * The spliterator can be traversed only once, so the publisher accepts a single
+ * subscriber; any further subscriber is rejected with {@code onError}. The resource
+ * passed along with the spliterator is closed when the elements are exhausted, when
+ * the spliterator fails, and when the subscription is cancelled or fails with a request
+ * for a non-positive number of elements. Closing happens on the executor, never
+ * concurrently with a pull.
+ * <p/>
+ * No element is pulled before {@code onSubscribe} has returned, even if the subscriber
+ * requests elements from within it. A {@code SIZED} spliterator signals {@code onComplete}
+ * as soon as its last element has been delivered, even if no demand remains. For other
+ * spliterators the end of the data is only found by a pull, which takes demand, so when
+ * the subscriber has requested exactly the remaining number of elements, {@code onComplete}
+ * follows its next request.
+ *
+ * @param <T> The type of elements produced by the spliterator
+ */
+public class SpliteratorPublisher<T> implements Publisher<T> {
+    private final Spliterator<T> spliterator;
+    private final Executor executor;
+    private final AutoCloseable resource;
+    private final int batchSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param spliterator the source of elements.
+     * @param executor    the executor which pulls elements and signals the subscriber.
+     * @param resource    closed when the subscription ends, for example
+     *                    {@link ScrollableResultsSpliterator#close}.
+     */
+    public SpliteratorPublisher(Spliterator<T> spliterator, Executor executor, AutoCloseable resource) {
+        this.spliterator = Objects.requireNonNull(spliterator);
+        this.executor = Objects.requireNonNull(executor);
+        this.resource = Objects.requireNonNull(resource);
+        this.batchSize = spliterator instanceof FixedBatchSpliteratorBase
+                ? ((FixedBatchSpliteratorBase<?>) spliterator).batchSize() : FixedBatchSpliteratorBase.DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Returns a publisher of the elements of the given stream, which is closed when the
+     * subscription ends. Streams such as those returned by
+     * {@link ScrollableResultsSpliterator#resultStream} close their spliterator along with
+     * the stream.
+     */
+    public static <T> Publisher<T> publisher(Stream<T> stream, Executor executor) {
+        return new SpliteratorPublisher<>(stream.spliterator(), executor, stream::close);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("This publisher allows only one subscriber"));
+            return;
+        }
+        final SpliteratorSubscription subscription = new SpliteratorSubscription(subscriber);
+        try {
+            subscriber.onSubscribe(subscription);
+        } catch (Throwable t) {
+            // rule 2.13: a subscriber which throws is treated as having cancelled
+            logger.warn("Subscriber failed in onSubscribe; the subscription is cancelled", t);
+            subscription.cancel();
+        }
+        subscription.subscribed();
+    }
+
+    /**
+     * Serializes all work on the spliterator and all signals to the subscriber: a run on
+     * the executor is only submitted by the caller which raises {@code wip} from zero,
+     * and the run keeps going until it has accounted for every increment. {@code wip}
+     * starts at one, held by {@code onSubscribe} until it returns, so signals to the
+     * subscriber cannot overlap it.
+     */
+    private final class SpliteratorSubscription implements Subscription, Runnable {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger(1);
+        private final Consumer<T> emitter = this::emit;
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException badRequest;
+        private boolean done;
+        private Throwable subscriberFailure;
+        /** The number of elements left in a SIZED spliterator, otherwise -1. */
+        private long remaining;
+
+        SpliteratorSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            this.remaining = spliterator.getExactSizeIfKnown();
+        }
+
+        /**
+         * Releases the hold of {@code onSubscribe}, running what was scheduled meanwhile.
+         * An exhausted SIZED spliterator completes right away, without waiting for demand.
+         */
+        void subscribed() {
+            if (remaining == 0 || wip.decrementAndGet() != 0) submit();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException(
+                        "Rule 3.9: the number of requested elements must be positive, but was " + n);
+                cancelled = true;
+            } else {
+                demand.accumulateAndGet(n, (current, add) -> {
+                    final long sum = current + add;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) submit();
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // no thread to continue on, so finish on the caller's
+                if (!done) {
+                    finish();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (!done && pullBatch()) {
+                    // the demand outlasted the batch; continue in a fresh run
+                    submit();
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        /**
+         * Delivers up to one batch of elements within the current demand, or the signal
+         * ending the subscription. Returns whether elements remain to be delivered.
+         */
+        private boolean pullBatch() {
+            for (int emitted = 0; emitted < batchSize; emitted++) {
+                if (cancelled) {
+                    finish();
+                    if (badRequest != null) subscriber.onError(badRequest);
+                    return false;
+                }
+                if (remaining == 0) {
+                    finish();
+                    subscriber.onComplete();
+                    return false;
+                }
+                if (demand.get() == 0) return false;
+                final boolean advanced;
+                try {
+                    advanced = spliterator.tryAdvance(emitter);
+                } catch (Throwable t) {
+                    finish();
+                    subscriber.onError(t);
+                    return false;
+                }
+                if (subscriberFailure != null) {
+                    // rule 2.13: a subscriber which throws is treated as having cancelled
+                    finish();
+                    logger.warn("Subscriber failed in onNext; the subscription is cancelled", subscriberFailure);
+                    return false;
+                }
+                if (!advanced) {
+                    finish();
+                    subscriber.onComplete();
+                    return false;
+                }
+                if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+                if (remaining > 0) remaining--;
+            }
+            return demand.get() > 0 || cancelled || remaining == 0;
+        }
+
+        private void emit(T elem) {
+            try {
+                subscriber.onNext(elem);
+            } catch (Throwable t) {
+                subscriberFailure = t;
+            }
+        }
+
+        private void finish() {
+            done = true;
+            try {
+                resource.close();
+            } catch (Exception e) {
+                logger.warn("Failed closing the source of a publisher", e);
+            }
+        }
+    }
+}
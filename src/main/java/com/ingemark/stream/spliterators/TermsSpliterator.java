@@ -0,0 +1,312 @@
+package com.ingemark.stream.spliterators;
+
+import org.apache.lucene.index.AutomatonTermsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.apache.lucene.util.automaton.CompiledAutomaton.AUTOMATON_TYPE.NONE;
+import static org.apache.lucene.util.automaton.CompiledAutomaton.AUTOMATON_TYPE.NORMAL;
+import static org.apache.lucene.util.automaton.CompiledAutomaton.AUTOMATON_TYPE.SINGLE;
+
+/**
+ * Produces the terms of a field in term order, together with their document and total
+ * term frequencies. Terms are yielded as copies of their bytes and converted to a
+ * {@code String} only on request, through {@link TermEntry#utf8ToString()}.
+ * <p/>
+ * The terms can be restricted to those starting with a prefix or to those accepted by a
+ * {@code CompiledAutomaton}. The spliterator covers a half-open term range
+ * {@code [lo, hi)} of the field's merged term dictionary, and {@link #trySplit} divides
+ * the range at the first term past its byte-wise midpoint. Each half seeks to the start
+ * of its own range, so the halves stay in term order and no merging is needed. Once
+ * traversal has begun, this spliterator splits off batches of its strict prefix. The
+ * estimated size is derived from the number of terms in each segment, which overcounts
+ * terms present in more than one segment and ignores any filter.
+ */
+public class TermsSpliterator extends FixedBatchSpliteratorBase<TermsSpliterator.TermEntry> {
+    private static final int MAX_SPLIT_PROBES = 64;
+    private static final BytesRef START = new BytesRef();
+    private final Terms terms;
+    private final CompiledAutomaton automaton;
+    private BytesRef lo;
+    private BytesRef hi;
+    private TermsEnum termsEnum;
+    private boolean resumeIntersect;
+    private boolean exhausted;
+
+    /**
+     * Creates a spliterator over the terms of the given field starting with the given
+     * prefix. An empty prefix selects all terms.
+     */
+    public TermsSpliterator(IndexReader reader, String field, BytesRef prefix) {
+        this(terms(reader, field), null, BytesRef.deepCopyOf(prefix), prefixEnd(prefix), termCount(reader, field));
+    }
+
+    /**
+     * Creates a spliterator over the terms of the given field accepted by the given
+     * automaton.
+     */
+    public TermsSpliterator(IndexReader reader, String field, CompiledAutomaton automaton) {
+        this(terms(reader, field), automaton,
+                automaton.type == SINGLE ? BytesRef.deepCopyOf(automaton.term) : START,
+                automaton.type == SINGLE ? singleTermEnd(automaton.term) : null,
+                termCount(reader, field));
+    }
+
+    private TermsSpliterator(Terms terms, CompiledAutomaton automaton, BytesRef lo, BytesRef hi, long est) {
+        super(ORDERED | NONNULL | DISTINCT, DEFAULT_BATCH_SIZE, est);
+        this.terms = terms;
+        this.automaton = automaton;
+        this.lo = lo;
+        this.hi = hi;
+        this.exhausted = terms == null || automaton != null && automaton.type == NONE;
+    }
+
+    public static Stream<TermEntry> terms(IndexReader reader, String field, String prefix) {
+        return StreamSupport.stream(new TermsSpliterator(reader, field, new BytesRef(prefix)), false);
+    }
+
+    public static Stream<TermEntry> terms(IndexReader reader, String field, CompiledAutomaton automaton) {
+        return StreamSupport.stream(new TermsSpliterator(reader, field, automaton), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super TermEntry> action) {
+        if (exhausted) return false;
+        try {
+            final BytesRef term;
+            if (termsEnum == null) term = open();
+            else if (resumeIntersect) {
+                resumeIntersect = false;
+                termsEnum = intersectAfter(lo);
+                term = termsEnum.next();
+            } else term = termsEnum.next();
+            if (term == null || hi != null && term.compareTo(hi) >= 0) {
+                exhausted = true;
+                return false;
+            }
+            action.accept(new TermEntry(BytesRef.deepCopyOf(term), termsEnum.docFreq(), termsEnum.totalTermFreq()));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Before traversal begins, this implementation splits off the lower part of the term
+     * range, ending at the first term at or past the byte-wise midpoint of the range.
+     * Afterwards it splits off batches of the strict prefix.
+     */
+    @Override
+    public Spliterator<TermEntry> trySplit() {
+        if (termsEnum == null && !exhausted) {
+            final BytesRef cut = splitPoint();
+            if (cut != null) {
+                final long half = super.estimateSize() / 2;
+                final TermsSpliterator prefix = new TermsSpliterator(terms, automaton, lo, cut, half);
+                lo = cut;
+                splitOff(half);
+                return prefix;
+            }
+        }
+        return super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return exhausted ? 0 : super.estimateSize();
+    }
+
+    /**
+     * Positions the terms enum on the first term of the range and returns it.
+     */
+    private BytesRef open() throws IOException {
+        if (automaton != null && automaton.type == NORMAL) {
+            if (lo.length == 0) {
+                termsEnum = terms.intersect(automaton, null);
+                return termsEnum.next();
+            }
+            // intersect() starts after the given term, so the range's own lower bound is checked here
+            final TermsEnum exact = terms.iterator();
+            if (automaton.runAutomaton.run(lo.bytes, lo.offset, lo.length) && exact.seekExact(lo)) {
+                termsEnum = exact;
+                resumeIntersect = true;
+                return exact.term();
+            }
+            termsEnum = intersectAfter(lo);
+            return termsEnum.next();
+        }
+        termsEnum = terms.iterator();
+        return termsEnum.seekCeil(lo) == TermsEnum.SeekStatus.END ? null : termsEnum.term();
+    }
+
+    /**
+     * Enumerates the accepted terms after the given one. This is what
+     * {@code Terms.intersect(automaton, startTerm)} does, except that the block tree
+     * implementation fails when the start term leaves the automaton.
+     */
+    private TermsEnum intersectAfter(BytesRef start) throws IOException {
+        return new AutomatonTermsEnum(terms.iterator(), automaton) {
+            @Override
+            protected BytesRef nextSeekTerm(BytesRef term) throws IOException {
+                return super.nextSeekTerm(term == null ? start : term);
+            }
+        };
+    }
+
+    /**
+     * Finds a term strictly inside the range near its byte-wise midpoint. While the upper
+     * half of the range turns out to hold no terms, the range is narrowed and the search
+     * repeated on the lower half.
+     */
+    private BytesRef splitPoint() {
+        try {
+            final TermsEnum probe = terms.iterator();
+            for (int i = 0; i < MAX_SPLIT_PROBES; i++) {
+                final BytesRef mid = midpoint(lo, hi);
+                if (mid == null) return null;
+                if (probe.seekCeil(mid) != TermsEnum.SeekStatus.END) {
+                    final BytesRef ceil = probe.term();
+                    if (hi == null || ceil.compareTo(hi) < 0) return BytesRef.deepCopyOf(ceil);
+                }
+                hi = mid;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a term strictly between {@code lo} and {@code hi} in byte order, or
+     * {@code null} if there is none short enough to be useful. A {@code null} upper bound
+     * stands for the end of the term space.
+     */
+    static BytesRef midpoint(BytesRef lo, BytesRef hi) {
+        final int len = Math.max(lo.length, hi == null ? 0 : hi.length) + 1;
+        // treat both bounds as base-256 fractions of len digits and average them
+        final int[] sum = new int[len];
+        for (int i = 0; i < len; i++) {
+            final int l = i < lo.length ? lo.bytes[lo.offset + i] & 0xff : 0;
+            final int h = hi == null ? 0xff : i < hi.length ? hi.bytes[hi.offset + i] & 0xff : 0;
+            sum[i] = l + h;
+        }
+        final byte[] mid = new byte[len];
+        int carry = 0;
+        for (int i = 0; i < len; i++) {
+            final int v = carry * 256 + sum[i];
+            mid[i] = (byte) (v / 2);
+            carry = v % 2;
+        }
+        int end = len;
+        while (end > 0 && mid[end - 1] == 0) end--;
+        final BytesRef result = new BytesRef(Arrays.copyOf(mid, end));
+        return result.compareTo(lo) > 0 && (hi == null || result.compareTo(hi) < 0) ? result : null;
+    }
+
+    private static BytesRef prefixEnd(BytesRef prefix) {
+        final byte[] end = Arrays.copyOfRange(prefix.bytes, prefix.offset, prefix.offset + prefix.length);
+        for (int i = end.length - 1; i >= 0; i--) {
+            if (end[i] != (byte) 0xff) {
+                end[i]++;
+                return new BytesRef(Arrays.copyOf(end, i + 1));
+            }
+        }
+        return null;
+    }
+
+    private static BytesRef singleTermEnd(BytesRef term) {
+        final byte[] end = new byte[term.length + 1];
+        System.arraycopy(term.bytes, term.offset, end, 0, term.length);
+        return new BytesRef(end);
+    }
+
+    private static Terms terms(IndexReader reader, String field) {
+        try {
+            return MultiFields.getTerms(reader, field);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long termCount(IndexReader reader, String field) {
+        try {
+            long count = 0;
+            for (LeafReaderContext leaf : reader.leaves()) {
+                final Terms terms = leaf.reader().terms(field);
+                if (terms == null) continue;
+                final long size = terms.size();
+                if (size < 0) return Long.MAX_VALUE;
+                count += size;
+            }
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A term of the field with its statistics.
+     */
+    public static final class TermEntry {
+        private final BytesRef term;
+        private final int docFreq;
+        private final long totalTermFreq;
+
+        TermEntry(BytesRef term, int docFreq, long totalTermFreq) {
+            this.term = term;
+            this.docFreq = docFreq;
+            this.totalTermFreq = totalTermFreq;
+        }
+
+        /**
+         * The bytes of the term. The returned reference is owned by this entry.
+         */
+        public BytesRef term() {
+            return term;
+        }
+
+        /**
+         * The number of documents containing the term, counting deleted documents.
+         */
+        public int docFreq() {
+            return docFreq;
+        }
+
+        /**
+         * The number of occurrences of the term in all documents, or {@code -1} if the
+         * field does not record term frequencies.
+         */
+        public long totalTermFreq() {
+            return totalTermFreq;
+        }
+
+        public boolean startsWith(BytesRef prefix) {
+            return StringHelper.startsWith(term, prefix);
+        }
+
+        public String utf8ToString() {
+            return term.utf8ToString();
+        }
+
+        @Override
+        public String toString() {
+            return term.utf8ToString() + " (" + docFreq + ")";
+        }
+    }
+}
@@ -1,16 +1,45 @@
 package com.ingemark.stream.spliterators;
 
 import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+/**
+ * Zips several spliterators into one which produces the elements of all of them at the
+ * same position together, ending with the shortest input.
+ * <p/>
+ * When every input is {@link #SIZED} and {@link #SUBSIZED} and all of them have the same
+ * exact size, {@link #trySplit} splits all inputs at once. For the sources in the JDK
+ * (arrays, lists, ranges) equally sized inputs split at the same index, so the two
+ * halves of a parallel zip are balanced. Should the inputs nevertheless split at
+ * different indices, the halves of each input are rejoined and this spliterator falls
+ * back to splitting off batches of its strict prefix, as it does for inputs of unknown
+ * size.
+ * <p/>
+ * Besides the {@code Object[]} tuples produced by this class, {@link #zip(Stream, Stream,
+ * BiFunction)} zips two streams with a typed function and the primitive variants zip two
+ * primitive streams without creating any tuple at all.
+ */
 public class ZippingSpliterator extends FixedBatchSpliteratorBase<Object[]> {
 
     private final Spliterator<?>[] spliterators;
+    private final HoldingConsumer<Object> holder = new HoldingConsumer<>();
 
     public ZippingSpliterator(Spliterator<?>... spliterators) {
-        super(ORDERED, 64, Integer.MAX_VALUE);
+        super(zippedCharacteristics(spliterators), DEFAULT_BATCH_SIZE, minSize(spliterators));
         this.spliterators = spliterators;
     }
 
@@ -20,21 +49,244 @@ public class ZippingSpliterator extends FixedBatchSpliteratorBase<Object[]> {
         return StreamSupport.stream(new ZippingSpliterator(splits), false);
     }
 
+    public static <A, B, R> Stream<R> zip(Stream<A> a, Stream<B> b, BiFunction<? super A, ? super B, ? extends R> zipper) {
+        return StreamSupport.stream(new BiZip<>(a.spliterator(), b.spliterator(), zipper), false);
+    }
+
+    public static IntStream zip(IntStream a, IntStream b, IntBinaryOperator zipper) {
+        return StreamSupport.intStream(new IntZip(a.spliterator(), b.spliterator(), zipper), false);
+    }
+
+    public static LongStream zip(LongStream a, LongStream b, LongBinaryOperator zipper) {
+        return StreamSupport.longStream(new LongZip(a.spliterator(), b.spliterator(), zipper), false);
+    }
+
+    public static DoubleStream zip(DoubleStream a, DoubleStream b, DoubleBinaryOperator zipper) {
+        return StreamSupport.doubleStream(new DoubleZip(a.spliterator(), b.spliterator(), zipper), false);
+    }
+
     @Override
     public boolean tryAdvance(Consumer<? super Object[]> action) {
         final Object[] subSpliteratorResults = new Object[spliterators.length];
-        final HoldingConsumer<Object> holder = new HoldingConsumer<>();
-
         for (int i = 0; i < spliterators.length; i++) {
-            final boolean ok = spliterators[i].tryAdvance(holder);
-            if (!ok)
-                return false;
-            else
-                subSpliteratorResults[i] = holder.value;
+            if (!spliterators[i].tryAdvance(holder)) return false;
+            subSpliteratorResults[i] = holder.value;
         }
         action.accept(subSpliteratorResults);
         return true;
     }
 
+    @Override
+    public Spliterator<Object[]> trySplit() {
+        final Spliterator<?>[] prefixes = splitAligned(spliterators, Spliterator::trySplit, ZippingSpliterator::concat);
+        return prefixes != null ? new ZippingSpliterator(prefixes) : super.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return minSize(spliterators);
+    }
+
+    /**
+     * Splits all inputs if they are of the same exact size and returns the prefixes, or
+     * {@code null} if they cannot be split at the same index. In the latter case any
+     * input which did split is replaced in {@code inputs} with the concatenation of its
+     * two halves.
+     */
+    static <S extends Spliterator<?>> S[] splitAligned(S[] inputs, UnaryOperator<S> trySplit, BinaryOperator<S> concat) {
+        if (inputs.length == 0) return null;
+        final long size = inputs[0].getExactSizeIfKnown();
+        if (size < 2) return null;
+        for (S s : inputs)
+            if (!s.hasCharacteristics(SIZED | SUBSIZED) || s.getExactSizeIfKnown() != size) return null;
+        final S[] prefixes = inputs.clone();
+        boolean aligned = true;
+        long prefixSize = -1;
+        for (int i = 0; i < inputs.length; i++) {
+            prefixes[i] = trySplit.apply(inputs[i]);
+            if (prefixes[i] == null) aligned = false;
+            else if (prefixSize == -1) prefixSize = prefixes[i].getExactSizeIfKnown();
+            else if (prefixes[i].getExactSizeIfKnown() != prefixSize) aligned = false;
+        }
+        if (aligned) return prefixes;
+        for (int i = 0; i < inputs.length; i++)
+            if (prefixes[i] != null) inputs[i] = concat.apply(prefixes[i], inputs[i]);
+        return null;
+    }
+
+    static int zippedCharacteristics(Spliterator<?>... spliterators) {
+        for (Spliterator<?> s : spliterators) if (!s.hasCharacteristics(SIZED | SUBSIZED)) return ORDERED;
+        return ORDERED | SIZED | SUBSIZED;
+    }
+
+    static long minSize(Spliterator<?>... spliterators) {
+        long min = Long.MAX_VALUE;
+        for (Spliterator<?> s : spliterators) min = Math.min(min, s.estimateSize());
+        return min;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Spliterator<?> concat(Spliterator<?> a, Spliterator<?> b) {
+        return Stream.concat(StreamSupport.stream((Spliterator<Object>) a, false),
+                StreamSupport.stream((Spliterator<Object>) b, false)).spliterator();
+    }
+
+    /**
+     * Zips two spliterators with a typed function.
+     */
+    public static class BiZip<A, B, R> extends FixedBatchSpliteratorBase<R> {
+        private final Spliterator<?>[] inputs;
+        private final BiFunction<? super A, ? super B, ? extends R> zipper;
+        private final HoldingConsumer<A> a = new HoldingConsumer<>();
+        private final HoldingConsumer<B> b = new HoldingConsumer<>();
+
+        public BiZip(Spliterator<A> a, Spliterator<B> b, BiFunction<? super A, ? super B, ? extends R> zipper) {
+            this(new Spliterator<?>[]{a, b}, zipper);
+        }
+
+        private BiZip(Spliterator<?>[] inputs, BiFunction<? super A, ? super B, ? extends R> zipper) {
+            super(zippedCharacteristics(inputs), DEFAULT_BATCH_SIZE, minSize(inputs));
+            this.inputs = inputs;
+            this.zipper = zipper;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super R> action) {
+            if (!((Spliterator<A>) inputs[0]).tryAdvance(a) || !((Spliterator<B>) inputs[1]).tryAdvance(b)) return false;
+            action.accept(zipper.apply(a.value, b.value));
+            return true;
+        }
+
+        @Override
+        public Spliterator<R> trySplit() {
+            final Spliterator<?>[] prefixes = splitAligned(inputs, Spliterator::trySplit, ZippingSpliterator::concat);
+            return prefixes != null ? new BiZip<>(prefixes, zipper) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return minSize(inputs);
+        }
+    }
 
+    /**
+     * Zips two {@code int} spliterators without boxing.
+     */
+    public static class IntZip extends FixedBatchSpliteratorBase.OfInt {
+        private final Spliterator.OfInt[] inputs;
+        private final IntBinaryOperator zipper;
+        private final IntHoldingConsumer a = new IntHoldingConsumer();
+        private final IntHoldingConsumer b = new IntHoldingConsumer();
+
+        public IntZip(Spliterator.OfInt a, Spliterator.OfInt b, IntBinaryOperator zipper) {
+            this(new Spliterator.OfInt[]{a, b}, zipper);
+        }
+
+        private IntZip(Spliterator.OfInt[] inputs, IntBinaryOperator zipper) {
+            super(zippedCharacteristics(inputs), DEFAULT_BATCH_SIZE, minSize(inputs));
+            this.inputs = inputs;
+            this.zipper = zipper;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (!inputs[0].tryAdvance(a) || !inputs[1].tryAdvance(b)) return false;
+            action.accept(zipper.applyAsInt(a.value, b.value));
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            final Spliterator.OfInt[] prefixes = splitAligned(inputs, Spliterator.OfInt::trySplit,
+                    (x, y) -> IntStream.concat(StreamSupport.intStream(x, false), StreamSupport.intStream(y, false))
+                                       .spliterator());
+            return prefixes != null ? new IntZip(prefixes, zipper) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return minSize(inputs);
+        }
+    }
+
+    /**
+     * Zips two {@code long} spliterators without boxing.
+     */
+    public static class LongZip extends FixedBatchSpliteratorBase.OfLong {
+        private final Spliterator.OfLong[] inputs;
+        private final LongBinaryOperator zipper;
+        private final LongHoldingConsumer a = new LongHoldingConsumer();
+        private final LongHoldingConsumer b = new LongHoldingConsumer();
+
+        public LongZip(Spliterator.OfLong a, Spliterator.OfLong b, LongBinaryOperator zipper) {
+            this(new Spliterator.OfLong[]{a, b}, zipper);
+        }
+
+        private LongZip(Spliterator.OfLong[] inputs, LongBinaryOperator zipper) {
+            super(zippedCharacteristics(inputs), DEFAULT_BATCH_SIZE, minSize(inputs));
+            this.inputs = inputs;
+            this.zipper = zipper;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (!inputs[0].tryAdvance(a) || !inputs[1].tryAdvance(b)) return false;
+            action.accept(zipper.applyAsLong(a.value, b.value));
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            final Spliterator.OfLong[] prefixes = splitAligned(inputs, Spliterator.OfLong::trySplit,
+                    (x, y) -> LongStream.concat(StreamSupport.longStream(x, false), StreamSupport.longStream(y, false))
+                                        .spliterator());
+            return prefixes != null ? new LongZip(prefixes, zipper) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return minSize(inputs);
+        }
+    }
+
+    /**
+     * Zips two {@code double} spliterators without boxing.
+     */
+    public static class DoubleZip extends FixedBatchSpliteratorBase.OfDouble {
+        private final Spliterator.OfDouble[] inputs;
+        private final DoubleBinaryOperator zipper;
+        private final DoubleHoldingConsumer a = new DoubleHoldingConsumer();
+        private final DoubleHoldingConsumer b = new DoubleHoldingConsumer();
+
+        public DoubleZip(Spliterator.OfDouble a, Spliterator.OfDouble b, DoubleBinaryOperator zipper) {
+            this(new Spliterator.OfDouble[]{a, b}, zipper);
+        }
+
+        private DoubleZip(Spliterator.OfDouble[] inputs, DoubleBinaryOperator zipper) {
+            super(zippedCharacteristics(inputs), DEFAULT_BATCH_SIZE, minSize(inputs));
+            this.inputs = inputs;
+            this.zipper = zipper;
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            if (!inputs[0].tryAdvance(a) || !inputs[1].tryAdvance(b)) return false;
+            action.accept(zipper.applyAsDouble(a.value, b.value));
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            final Spliterator.OfDouble[] prefixes = splitAligned(inputs, Spliterator.OfDouble::trySplit,
+                    (x, y) -> DoubleStream.concat(StreamSupport.doubleStream(x, false),
+                            StreamSupport.doubleStream(y, false)).spliterator());
+            return prefixes != null ? new DoubleZip(prefixes, zipper) : super.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            return minSize(inputs);
+        }
+    }
 }
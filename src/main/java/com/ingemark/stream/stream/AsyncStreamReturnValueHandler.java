@@ -0,0 +1,148 @@
+package com.ingemark.stream.stream;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Handles controller methods returning a {@code Stream} by writing the stream to an
+ * asynchronous response with {@link AsyncStreamWriter}, which frees the container thread
+ * as soon as the handler method returns.
+ * <p/>
+ * The output format is negotiated from the {@code Accept} header among the Jackson
+ * message converters, honoring the {@code produces} condition of the request mapping.
+ * The stream is serialized by the {@link JacksonStreamSerializer} of the chosen
+ * converter's mapper, so for {@code application/x-ndjson} the elements are written as
+ * separate lines instead of an array.
+ * <p/>
+ * Asynchronous processing is started through the request's {@code WebAsyncManager}
+ * with a {@code DeferredResult}, which expires after the configured timeout. Once the
+ * stream is written the request is dispatched back and this handler completes it.
+ * <p/>
+ * This handler must be registered ahead of the built-in handlers, which would otherwise
+ * treat a {@code Stream} returned from a {@code @ResponseBody} method as an ordinary
+ * value. The stream must not depend on resources bound to the request thread, since it
+ * is consumed after the request has left the dispatcher. Resources which the request has
+ * registered as {@link StreamResources} are closed along with the stream.
+ */
+public class AsyncStreamReturnValueHandler implements HandlerMethodReturnValueHandler {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 13;
+    private final List<HttpMessageConverter<?>> converters;
+    private final ContentNegotiationManager contentNegotiationManager;
+    private final Executor executor;
+    private final int chunkSize;
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis the time allowed for writing a response, after which it is cut
+     *                      short; zero or less for no timeout.
+     */
+    public AsyncStreamReturnValueHandler(List<HttpMessageConverter<?>> converters,
+                                         ContentNegotiationManager contentNegotiationManager,
+                                         Executor executor, int chunkSize, long timeoutMillis) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive, but was " + chunkSize);
+        this.converters = converters;
+        this.contentNegotiationManager = contentNegotiationManager;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Also supports the result of the dispatch which follows a written stream.
+     */
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        final Class<?> type = returnType.getParameterType();
+        return Stream.class.isAssignableFrom(type) || type == AsyncStreamWriter.Written.class;
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+        mavContainer.setRequestHandled(true);
+        if (returnValue == null || returnValue == AsyncStreamWriter.WRITTEN) return;
+        final HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+        final Stream<?> stream = StreamResources.transferTo(request, (Stream<?>) returnValue);
+        try {
+            final HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+            final Selection selection = select(webRequest, request);
+            response.setContentType(selection.mediaType.toString());
+            final AsyncStreamWriter writer = new AsyncStreamWriter(
+                    stream, response, selection.converter.getObjectMapper(), executor, chunkSize);
+            final DeferredResult<Object> result = new DeferredResult<>(timeoutMillis);
+            WebAsyncUtils.getAsyncManager(webRequest).startDeferredResultProcessing(result, mavContainer);
+            writer.start(request.getAsyncContext(), result);
+        } catch (Exception | Error e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Chooses the first Jackson converter able to write the most preferred acceptable
+     * media type, along with the concrete media type to respond with.
+     */
+    private Selection select(NativeWebRequest webRequest, HttpServletRequest request)
+            throws HttpMediaTypeNotAcceptableException {
+        final List<MediaType> accepted = new ArrayList<>(contentNegotiationManager.resolveMediaTypes(webRequest));
+        MediaType.sortBySpecificityAndQuality(accepted);
+        @SuppressWarnings("unchecked")
+        final Collection<MediaType> producible =
+                (Collection<MediaType>) request.getAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+        for (MediaType acceptable : accepted) {
+            for (HttpMessageConverter<?> converter : converters) {
+                if (!(converter instanceof AbstractJackson2HttpMessageConverter)) continue;
+                for (MediaType supported : converter.getSupportedMediaTypes()) {
+                    if (!supported.isCompatibleWith(acceptable) || !isProducible(supported, producible)) continue;
+                    final MediaType mediaType = acceptable.isConcrete() ? acceptable : supported;
+                    return new Selection((AbstractJackson2HttpMessageConverter) converter, mediaType);
+                }
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(supportedMediaTypes());
+    }
+
+    private static boolean isProducible(MediaType mediaType, Collection<MediaType> producible) {
+        if (producible == null || producible.isEmpty()) return true;
+        for (MediaType p : producible) if (p.isCompatibleWith(mediaType)) return true;
+        return false;
+    }
+
+    private List<MediaType> supportedMediaTypes() {
+        final List<MediaType> types = new ArrayList<>();
+        for (HttpMessageConverter<?> converter : converters) {
+            if (converter instanceof AbstractJackson2HttpMessageConverter) types.addAll(converter.getSupportedMediaTypes());
+        }
+        return types;
+    }
+
+    private static class Selection {
+        final AbstractJackson2HttpMessageConverter converter;
+        final MediaType mediaType;
+
+        Selection(AbstractJackson2HttpMessageConverter converter, MediaType mediaType) {
+            this.converter = converter;
+            this.mediaType = mediaType;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.ingemark.stream.stream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static com.ingemark.stream.util.Util.logger;
+
+/**
+ * Writes a {@code Stream} to an asynchronous servlet response with non-blocking I/O.
+ * <p/>
+ * Whenever the container reports the output as writable, the executor serializes the
+ * next elements into a chunk of about {@code chunkSize} bytes and writes it, until the
+ * output stops being ready. Elements are only pulled from the stream while the client
+ * keeps up, so a slow client holds neither a container thread nor an executor thread,
+ * and the source is read no faster than the response is sent. The stream is serialized
+ * in steps by the mapper's {@link JacksonStreamSerializer}, so its {@link StreamWriteConfig}
+ * applies: NDJSON mode, parallel serialization and the flush policy, whose flushes are
+ * passed on to the response.
+ * <p/>
+ * The writer runs within the request's {@code DeferredResult}, which it sets to
+ * {@link #WRITTEN} once the response is complete. The request is then dispatched back
+ * to the {@code DispatcherServlet} to finish processing, which runs the interceptors'
+ * completion callbacks, such as closing the Hibernate session of open-session-in-view.
+ * <p/>
+ * The stream is closed when the response completes, fails or times out. An error before
+ * the response has been committed is answered with status 500, or 503 on timeout or when
+ * the executor rejects the work. After that the error is raised on the dispatch instead,
+ * so the container aborts the connection and the client can tell the response is
+ * incomplete. Failures reported by the container don't wait for an element being pulled;
+ * the pump stops at its next step and closes the stream itself.
+ */
+final class AsyncStreamWriter implements WriteListener, AsyncListener {
+    /**
+     * The result of a request whose stream has been written.
+     */
+    static final Written WRITTEN = new Written();
+    private final Stream<?> stream;
+    private final HttpServletResponse response;
+    private final ServletOutputStream out;
+    private final Executor executor;
+    private final JsonGenerator gen;
+    private final JacksonStreamSerializer.Steps steps;
+    private final Chunk chunk = new Chunk();
+    private final int chunkSize;
+    private AsyncContext async;
+    private DeferredResult<Object> result;
+    private int written;
+    private boolean flushPending;
+    private boolean finished;
+    private boolean pumping;
+    private boolean repump;
+    private boolean done;
+    private boolean closed;
+    private volatile boolean stopped;
+
+    /**
+     * Prepares the writing of the stream with the serializer registered with the mapper
+     * for the stream's type, which must be a {@link JacksonStreamSerializer}.
+     */
+    AsyncStreamWriter(Stream<?> stream, HttpServletResponse response, ObjectMapper mapper,
+                      Executor executor, int chunkSize) throws IOException {
+        this.stream = stream;
+        this.response = response;
+        this.out = response.getOutputStream();
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        final DefaultSerializerProvider provider = ((DefaultSerializerProvider) mapper.getSerializerProvider())
+                .createInstance(mapper.getSerializationConfig(), mapper.getSerializerFactory());
+        final Object serializer = provider.findValueSerializer(stream.getClass(), null);
+        if (!(serializer instanceof JacksonStreamSerializer)) throw new IllegalStateException(
+                "Streams must be serialized with a JacksonStreamSerializer, but found " + serializer);
+        this.gen = mapper.getFactory().createGenerator(chunk, JsonEncoding.UTF8);
+        mapper.getSerializationConfig().initialize(gen);
+        this.steps = ((JacksonStreamSerializer) serializer).steps(stream, gen, provider);
+    }
+
+    /**
+     * Registers this writer with the asynchronous request. The container then calls
+     * {@link #onWritePossible} as soon as the output is ready.
+     */
+    void start(AsyncContext async, DeferredResult<Object> result) {
+        this.async = async;
+        this.result = result;
+        async.addListener(this);
+        out.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() {
+        try {
+            executor.execute(this::pump);
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    @Override
+    public synchronized void onComplete(AsyncEvent event) {
+        done = true;
+        stopped = true;
+        closeStream();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        fail(new TimeoutException("Timed out writing a stream response"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    /**
+     * Alternates between writing out the chunk and refilling it until the output stops
+     * being ready. Only one pump runs at a time; the monitor is held while writing to the
+     * response, but never while pulling elements from the stream.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                repump = true;
+                return;
+            }
+            if (done) return;
+            pumping = true;
+        }
+        try {
+            while (write()) fill();
+        } catch (Throwable e) {
+            fail(e);
+            synchronized (this) {
+                pumping = false;
+            }
+        }
+        synchronized (this) {
+            if (done) closeStream();
+        }
+    }
+
+    /**
+     * Writes out the chunk while the output is ready and returns whether it is to be
+     * refilled. Otherwise the pump stops, in the same critical section that saw the output
+     * not ready, so that the container's next {@link #onWritePossible} starts a new one.
+     */
+    private synchronized boolean write() throws IOException {
+        while (true) {
+            while (!done && out.isReady()) {
+                if (written < chunk.size()) {
+                    out.write(chunk.bytes(), written, chunk.size() - written);
+                    written = chunk.size();
+                    flushPending = chunk.flushed;
+                } else if (flushPending) {
+                    out.flush();
+                    flushPending = false;
+                } else if (finished) {
+                    done = true;
+                    dispatch(WRITTEN);
+                } else {
+                    chunk.reset();
+                    written = 0;
+                    return true;
+                }
+            }
+            if (done || !repump) break;
+            repump = false;
+        }
+        pumping = false;
+        return false;
+    }
+
+    /**
+     * Serializes elements into the chunk until it reaches the chunk size, the flush
+     * policy calls for a flush or the stream is exhausted. Stops early once the response
+     * has failed.
+     */
+    private void fill() throws IOException {
+        while (steps.step()) {
+            if (stopped || chunk.flushed) return;
+            if (chunk.size() + gen.getOutputBuffered() >= chunkSize) {
+                JacksonStreamSerializer.drain(gen);
+                return;
+            }
+        }
+        gen.close();
+        finished = true;
+    }
+
+    /**
+     * Ends the response after an error. It doesn't wait for a running pump, which stops
+     * at its next step and closes the stream.
+     */
+    private synchronized void fail(Throwable t) {
+        if (done) return;
+        done = true;
+        stopped = true;
+        logger.warn("Failed writing a stream response", t);
+        if (response.isCommitted()) {
+            dispatch(t);
+        } else {
+            try {
+                response.reset();
+                response.setStatus(t instanceof TimeoutException || t instanceof RejectedExecutionException
+                        ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                dispatch(WRITTEN);
+            } catch (IllegalStateException e) {
+                // committed in the meantime
+                dispatch(t);
+            }
+        }
+        closeStream();
+    }
+
+    /**
+     * Dispatches the request back to the servlet with the given outcome, or completes it
+     * directly if the result has already expired. An exception outcome is raised on the
+     * dispatch, so the container aborts a committed response rather than ending it.
+     */
+    private void dispatch(Object outcome) {
+        if (result == null || (outcome instanceof Throwable
+                ? result.setErrorResult(outcome) : result.setResult(outcome))) return;
+        try {
+            async.complete();
+        } catch (IllegalStateException e) {
+            // the response has already been completed by the container
+        }
+    }
+
+    /**
+     * Closes the stream, unless a pump is running; the pump then closes it when it stops.
+     * Called with the monitor held.
+     */
+    private void closeStream() {
+        if (closed || pumping) return;
+        closed = true;
+        try {
+            if (!finished) steps.abort();
+            stream.close();
+        } catch (RuntimeException e) {
+            logger.warn("Failed closing a stream", e);
+        }
+    }
+
+    /**
+     * Marks a chunk the flush policy asked to flush.
+     */
+    private static class Chunk extends ByteArrayOutputStream {
+        boolean flushed;
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            flushed = false;
+        }
+    }
+
+    static final class Written {
+        private Written() {
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.ingemark.stream.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Reads and writes CBOR ({@code application/cbor}) with an {@code ObjectMapper} backed by
+ * a {@code CBORFactory}.
+ */
+public class CborHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+    public static final MediaType APPLICATION_CBOR = new MediaType("application", "cbor");
+
+    public CborHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper, APPLICATION_CBOR);
+        Assert.isInstanceOf(CBORFactory.class, objectMapper.getFactory(), "CBORFactory required");
+    }
+}
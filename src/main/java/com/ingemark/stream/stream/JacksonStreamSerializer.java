@@ -1,31 +1,71 @@
 package com.ingemark.stream.stream;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.BeanProperty;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.ser.ContainerSerializer;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import com.fasterxml.jackson.databind.ser.SerializerFactory;
 import com.fasterxml.jackson.databind.ser.std.AsArraySerializerBase;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Stream;
 
+import static com.fasterxml.jackson.core.JsonFactory.FORMAT_NAME_JSON;
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM;
+import static com.fasterxml.jackson.core.util.DefaultPrettyPrinter.DEFAULT_ROOT_VALUE_SEPARATOR;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Serializes a {@code Stream} element by element as it is consumed, writing each element
+ * on its own line in textual formats. How often the output is flushed and whether the elements are enclosed
+ * in an array is controlled by a {@link StreamWriteConfig}, which can also enable
+ * order-preserving parallel serialization of parallel streams.
+ */
 public class JacksonStreamSerializer extends AsArraySerializerBase<Stream<?>> {
+    private final StreamWriteConfig config;
+
     public JacksonStreamSerializer() {
-        this(TypeFactory.unknownType(), false, null, null);
+        this(StreamWriteConfig.DEFAULT);
+    }
+
+    public JacksonStreamSerializer(StreamWriteConfig config) {
+        this(TypeFactory.unknownType(), false, null, null, config);
     }
 
     public JacksonStreamSerializer(
             JavaType elementType, boolean staticTyping, TypeSerializer vts, BeanProperty property) {
+        this(elementType, staticTyping, vts, property, StreamWriteConfig.DEFAULT);
+    }
+
+    private JacksonStreamSerializer(JavaType elementType, boolean staticTyping, TypeSerializer vts,
+                                    BeanProperty property, StreamWriteConfig config) {
         super(Stream.class, elementType, staticTyping, vts, property, null);
+        this.config = config;
     }
 
     public JacksonStreamSerializer(
             JacksonStreamSerializer src, BeanProperty property, TypeSerializer vts, JsonSerializer<?> elementSerializer) {
         super(src, property, vts, elementSerializer);
+        this.config = src.config;
     }
 
 
@@ -45,7 +85,7 @@ public class JacksonStreamSerializer extends AsArraySerializerBase<Stream<?>> {
 
     @Override
     protected ContainerSerializer<?> _withValueTypeSerializer(TypeSerializer vts) {
-        return new JacksonStreamSerializer(_elementType, _staticTyping, vts, _property);
+        return new JacksonStreamSerializer(_elementType, _staticTyping, vts, _property, config);
     }
 
     @Override
@@ -54,34 +94,60 @@ public class JacksonStreamSerializer extends AsArraySerializerBase<Stream<?>> {
         return new JacksonStreamSerializer(this, property, vts, elementSerializer);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * In NDJSON mode a stream written as the root value is written without the enclosing
+     * array, as a sequence of root values separated only by newlines. The root value
+     * separator configured with the generator's factory is suspended meanwhile.
+     */
+    @Override
+    public void serialize(Stream<?> value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        if (!config.ndjson() || !jgen.getOutputContext().inRoot()) {
+            super.serialize(value, jgen, provider);
+            return;
+        }
+        final SerializableString separator = configuredRootValueSeparator(jgen);
+        if (separator == null) {
+            serializeContents(value, jgen, provider);
+            return;
+        }
+        jgen.setRootValueSeparator(null);
+        try {
+            serializeContents(value, jgen, provider);
+        } finally {
+            jgen.setRootValueSeparator(separator);
+        }
+    }
+
+    /**
+     * Returns the root value separator the generator was created with, as the generator
+     * itself does not tell.
+     */
+    private static SerializableString configuredRootValueSeparator(JsonGenerator jgen) {
+        if (jgen.getCodec() == null) return DEFAULT_ROOT_VALUE_SEPARATOR;
+        final String separator = jgen.getCodec().getFactory().getRootValueSeparator();
+        if (separator == null) return null;
+        return separator.equals(DEFAULT_ROOT_VALUE_SEPARATOR.getValue())
+                ? DEFAULT_ROOT_VALUE_SEPARATOR : new SerializedString(separator);
+    }
+
     @Override
     protected void serializeContents(Stream<?> value, JsonGenerator jgen, SerializerProvider provider)
             throws IOException {
-        final TypeSerializer typeSer = _valueTypeSerializer;
+        final Flusher flusher = config.flushes() ? new Flusher(config, jgen) : null;
+        if (serializesInParallel(value, jgen, provider)) {
+            new ParallelWriter(this, value, jgen, (DefaultSerializerProvider) provider, flusher).write();
+            return;
+        }
+        // binary formats such as Smile and CBOR do not support raw output
+        final boolean newlines = !jgen.canWriteBinaryNatively();
         final PrevStateHolder prev = new PrevStateHolder();
         value.forEachOrdered(elem -> {
             try {
-                if (elem == null) {
-                    provider.defaultSerializeNull(jgen);
-                    return;
-                }
-                JsonSerializer<Object> currSerializer = _elementSerializer;
-                if (currSerializer == null) {
-                    final Class<?> cc = elem.getClass();
-                    if (cc == prev.cc) {
-                        currSerializer = prev.serializer;
-                    } else {
-                        currSerializer = provider.findValueSerializer(cc, _property);
-                        prev.serializer = currSerializer;
-                        prev.cc = cc;
-                    }
-                }
-                if (typeSer == null) {
-                    currSerializer.serialize(elem, jgen, provider);
-                } else {
-                    currSerializer.serializeWithType(elem, jgen, provider, typeSer);
-                }
-                jgen.writeRaw('\n');
+                serializeElement(elem, jgen, provider, prev);
+                if (newlines) jgen.writeRaw('\n');
+                if (flusher != null) flusher.elementWritten();
             } catch (IOException e) {
                 // achieve exception transparency by propagating checked exceptions
                 // over the lambda invocation boundary. Note that the enclosing method
@@ -91,8 +157,343 @@ public class JacksonStreamSerializer extends AsArraySerializerBase<Stream<?>> {
         });
     }
 
+    private void serializeElement(Object elem, JsonGenerator jgen, SerializerProvider provider, PrevStateHolder prev)
+            throws IOException {
+        if (elem == null) {
+            provider.defaultSerializeNull(jgen);
+            return;
+        }
+        JsonSerializer<Object> currSerializer = _elementSerializer;
+        if (currSerializer == null) {
+            final Class<?> cc = elem.getClass();
+            if (cc == prev.cc) {
+                currSerializer = prev.serializer;
+            } else {
+                currSerializer = provider.findValueSerializer(cc, _property);
+                prev.serializer = currSerializer;
+                prev.cc = cc;
+            }
+        }
+        if (_valueTypeSerializer == null) {
+            currSerializer.serialize(elem, jgen, provider);
+        } else {
+            currSerializer.serializeWithType(elem, jgen, provider, _valueTypeSerializer);
+        }
+    }
+
+    private boolean serializesInParallel(Stream<?> value, JsonGenerator jgen, SerializerProvider provider) {
+        return config.parallelBatchSize() > 0 && value.isParallel() && _valueTypeSerializer == null
+                && jgen.getOutputTarget() instanceof OutputStream && jgen.getPrettyPrinter() == null
+                && provider instanceof DefaultSerializerProvider
+                && jgen.getCodec() instanceof ObjectMapper
+                && FORMAT_NAME_JSON.equals(((ObjectMapper) jgen.getCodec()).getFactory().getFormatName());
+    }
+
+    /**
+     * Writes the generator's buffered output to its target without flushing the target.
+     */
+    static void drain(JsonGenerator jgen) throws IOException {
+        final boolean passed = jgen.isEnabled(FLUSH_PASSED_TO_STREAM);
+        jgen.disable(FLUSH_PASSED_TO_STREAM);
+        try {
+            jgen.flush();
+        } finally {
+            if (passed) jgen.enable(FLUSH_PASSED_TO_STREAM);
+        }
+    }
+
+    /**
+     * Returns a writer of the given stream as a root value, which writes it the same as
+     * {@link #serialize} does, but in steps of one element or one parallel part, so that
+     * the caller can stop between steps, for example until non-blocking output is ready.
+     * The generator is reserved for the stream until the writer is done.
+     */
+    Steps steps(Stream<?> value, JsonGenerator jgen, SerializerProvider provider) {
+        return new Steps(value, jgen, provider);
+    }
+
+    /**
+     * A stream being written in steps. Each step writes the start of the array, one
+     * element or one finished parallel part, or the end of the array.
+     */
+    final class Steps {
+        private final Stream<?> value;
+        private final JsonGenerator jgen;
+        private final SerializerProvider provider;
+        private final boolean array;
+        private final boolean newlines;
+        private final PrevStateHolder prev = new PrevStateHolder();
+        private Flusher flusher;
+        private Spliterator<?> spliterator;
+        private ParallelWriter parallel;
+        private boolean started;
+        private boolean done;
+
+        private Steps(Stream<?> value, JsonGenerator jgen, SerializerProvider provider) {
+            this.value = value;
+            this.jgen = jgen;
+            this.provider = provider;
+            this.array = !config.ndjson() || !jgen.getOutputContext().inRoot();
+            this.newlines = !jgen.canWriteBinaryNatively();
+        }
+
+        /**
+         * Writes the next step. Returns whether any steps remain.
+         */
+        boolean step() throws IOException {
+            if (done) return false;
+            if (!started) {
+                started = true;
+                if (array) jgen.writeStartArray();
+                else jgen.setRootValueSeparator(null);
+                flusher = config.flushes() ? new Flusher(config, jgen) : null;
+                if (serializesInParallel(value, jgen, provider)) {
+                    parallel = new ParallelWriter(
+                            JacksonStreamSerializer.this, value, jgen, (DefaultSerializerProvider) provider, flusher);
+                } else {
+                    spliterator = value.spliterator();
+                }
+                return true;
+            }
+            final boolean more = parallel != null ? parallel.step() : spliterator.tryAdvance(elem -> {
+                try {
+                    serializeElement(elem, jgen, provider, prev);
+                    if (newlines) jgen.writeRaw('\n');
+                    if (flusher != null) flusher.elementWritten();
+                } catch (IOException e) {
+                    sneakyThrow(e);
+                }
+            });
+            if (more) return true;
+            done = true;
+            if (array) jgen.writeEndArray();
+            return false;
+        }
+
+        /**
+         * Stops writing, cancelling the parallel parts which have not started yet.
+         */
+        void abort() {
+            done = true;
+            if (parallel != null) parallel.cancel();
+        }
+    }
+
     private static class PrevStateHolder {
         JsonSerializer<Object> serializer;
         Class<?> cc;
     }
+
+    /**
+     * Applies the flush policy of a {@link StreamWriteConfig} to one serialization.
+     */
+    private static class Flusher {
+        private final StreamWriteConfig config;
+        private final JsonGenerator jgen;
+        private int elements;
+        private long bytes;
+        private int lastBuffered;
+        private long lastFlushNanos;
+
+        Flusher(StreamWriteConfig config, JsonGenerator jgen) {
+            this.config = config;
+            this.jgen = jgen;
+            this.lastBuffered = Math.max(0, jgen.getOutputBuffered());
+            this.lastFlushNanos = config.flushEveryMillis() > 0 ? System.nanoTime() : 0;
+        }
+
+        void elementWritten() throws IOException {
+            written(1, -1);
+        }
+
+        void batchWritten(int count, int batchBytes) throws IOException {
+            written(count, batchBytes);
+        }
+
+        private void written(int count, long batchBytes) throws IOException {
+            boolean flush = config.flushEveryElements() > 0 && (elements += count) >= config.flushEveryElements();
+            if (config.flushEveryBytes() > 0) {
+                final int buffered = Math.max(0, jgen.getOutputBuffered());
+                if (batchBytes >= 0) bytes += batchBytes;
+                // a drop in the buffered count means the generator has drained its buffer into the target
+                else bytes += buffered >= lastBuffered ? buffered - lastBuffered : buffered;
+                lastBuffered = buffered;
+                flush |= bytes >= config.flushEveryBytes();
+            }
+            long now = 0;
+            if (config.flushEveryMillis() > 0) {
+                now = System.nanoTime();
+                flush |= now - lastFlushNanos >= MILLISECONDS.toNanos(config.flushEveryMillis());
+            }
+            if (!flush) return;
+            jgen.flush();
+            elements = 0;
+            bytes = 0;
+            lastBuffered = Math.max(0, jgen.getOutputBuffered());
+            lastFlushNanos = now;
+        }
+    }
+
+    /**
+     * Serializes a parallel stream in parts split off its spliterator, each traversed and
+     * serialized on the executor into a pooled byte buffer, and writes the finished parts
+     * to the output in encounter order, with a bounded number of parts in flight. The
+     * writing thread only splits the spliterator and copies finished parts to the output.
+     */
+    private static class ParallelWriter {
+        private final JacksonStreamSerializer serializer;
+        private final JsonGenerator jgen;
+        private final DefaultSerializerProvider provider;
+        private final Flusher flusher;
+        private final JsonFactory factory;
+        private final SerializerFactory serializerFactory;
+        private final StreamWriteConfig config;
+        private final boolean separated;
+        private final Deque<Spliterator<?>> parts = new ArrayDeque<>();
+        private final Queue<FutureTask<BatchBuffer>> inFlight = new ArrayDeque<>();
+        private final Queue<BatchBuffer> pool = new ArrayDeque<>();
+        private boolean written;
+
+        ParallelWriter(JacksonStreamSerializer serializer, Stream<?> value, JsonGenerator jgen,
+                       DefaultSerializerProvider provider, Flusher flusher) {
+            final ObjectMapper mapper = (ObjectMapper) jgen.getCodec();
+            this.serializer = serializer;
+            this.jgen = jgen;
+            this.provider = provider;
+            this.flusher = flusher;
+            this.factory = mapper.getFactory();
+            this.serializerFactory = mapper.getSerializerFactory();
+            this.config = serializer.config;
+            this.separated = jgen.getOutputContext().inArray();
+            parts.push(value.spliterator());
+        }
+
+        void write() throws IOException {
+            try {
+                while (step()) ;
+            } finally {
+                cancel();
+            }
+        }
+
+        /**
+         * Keeps the window of parts in flight full and writes the first of them once it
+         * is finished. Returns whether any parts remain.
+         */
+        boolean step() throws IOException {
+            while (inFlight.size() < config.parallelWindow()) {
+                final Spliterator<?> part = nextPart();
+                if (part == null) break;
+                final BatchBuffer buf = pool.isEmpty() ? new BatchBuffer() : pool.remove();
+                final FutureTask<BatchBuffer> task = new FutureTask<>(() -> serialize(part, buf));
+                config.executor().execute(task);
+                inFlight.add(task);
+            }
+            if (inFlight.isEmpty()) return false;
+            writeBatch(inFlight.remove());
+            return !inFlight.isEmpty() || !parts.isEmpty();
+        }
+
+        /**
+         * Cancels the parts in flight which have not started yet.
+         */
+        void cancel() {
+            for (FutureTask<BatchBuffer> task : inFlight) task.cancel(false);
+            inFlight.clear();
+            parts.clear();
+        }
+
+        /**
+         * Takes the first remaining part in encounter order, splitting it down to the
+         * batch size where the spliterator allows. The rest goes back to the front.
+         */
+        private Spliterator<?> nextPart() {
+            Spliterator<?> part = parts.poll();
+            if (part == null) return null;
+            for (Spliterator<?> prefix; part.estimateSize() > config.parallelBatchSize()
+                                        && (prefix = part.trySplit()) != null; part = prefix) {
+                parts.push(part);
+            }
+            return part;
+        }
+
+        private BatchBuffer serialize(Spliterator<?> part, BatchBuffer buf) throws IOException {
+            // serializer providers are not thread-safe, so each part gets its own
+            final SerializerProvider partProvider = provider.createInstance(provider.getConfig(), serializerFactory);
+            final PrevStateHolder prev = new PrevStateHolder();
+            try (JsonGenerator g = factory.createGenerator(buf, JsonEncoding.UTF8)) {
+                g.setFeatureMask(jgen.getFeatureMask());
+                g.setCharacterEscapes(jgen.getCharacterEscapes());
+                g.setHighestNonEscapedChar(jgen.getHighestEscapedChar());
+                g.setRootValueSeparator(null);
+                part.forEachRemaining(elem -> {
+                    try {
+                        if (buf.elements++ > 0 && separated) g.writeRaw(',');
+                        serializer.serializeElement(elem, g, partProvider, prev);
+                        g.writeRaw('\n');
+                    } catch (IOException e) {
+                        sneakyThrow(e);
+                    }
+                });
+            }
+            return buf;
+        }
+
+        private void writeBatch(FutureTask<BatchBuffer> task) throws IOException {
+            final BatchBuffer buf = join(task);
+            if (buf.elements > 0) {
+                // the part is written past the generator, so its buffered output goes first
+                drain(jgen);
+                final OutputStream out = (OutputStream) jgen.getOutputTarget();
+                if (separated && written) out.write(',');
+                final byte[] bytes = buf.toByteArray();
+                out.write(bytes);
+                written = true;
+                if (flusher != null) flusher.batchWritten(buf.elements, bytes.length);
+            }
+            buf.reset();
+            pool.add(buf);
+        }
+
+        private static BatchBuffer join(FutureTask<BatchBuffer> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while serializing a stream");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                return sneakyThrow(cause);
+            }
+        }
+    }
+
+    /**
+     * A reusable buffer holding the serialized form of one part of a stream. Resetting it
+     * keeps its last segment.
+     */
+    private static class BatchBuffer extends OutputStream {
+        private final ByteArrayBuilder bytes = new ByteArrayBuilder(1 << 13);
+        int elements;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        void reset() {
+            bytes.reset();
+            elements = 0;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.ingemark.stream.stream;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import javax.servlet.ServletRequest;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Resolves {@code StatelessSession} parameters of handler methods to a session on a
+ * connection of its own, independent of any session bound to the request thread.
+ * <p/>
+ * The connection is read-only and not in auto-commit mode, so the driver can stream
+ * results with a server-side cursor. Session and connection are registered as
+ * {@link StreamResources}: if the handler returns a {@code Stream}, they are released
+ * when the response has been written; otherwise when request processing ends. The
+ * transaction is always rolled back.
+ */
+public class StatelessSessionArgumentResolver implements HandlerMethodArgumentResolver {
+    private final SessionFactory sf;
+    private final DataSource dataSource;
+
+    public StatelessSessionArgumentResolver(SessionFactory sf, DataSource dataSource) {
+        this.sf = sf;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return StatelessSession.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        final boolean readOnly = connection.isReadOnly();
+        final boolean autoCommit = connection.getAutoCommit();
+        try {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            final StatelessSession session = sf.openStatelessSession(connection);
+            StreamResources.register(webRequest.getNativeRequest(ServletRequest.class), () -> {
+                try {
+                    session.close();
+                } finally {
+                    release(connection, readOnly, autoCommit);
+                }
+            });
+            return session;
+        } catch (SQLException | RuntimeException e) {
+            release(connection, readOnly, autoCommit);
+            throw e;
+        }
+    }
+
+    /**
+     * Rolls back and returns the connection to the pool in the state it was borrowed in.
+     */
+    private static void release(Connection connection, boolean readOnly, boolean autoCommit) throws SQLException {
+        try {
+            if (!connection.getAutoCommit()) connection.rollback();
+            connection.setAutoCommit(autoCommit);
+            connection.setReadOnly(readOnly);
+        } finally {
+            connection.close();
+        }
+    }
+}
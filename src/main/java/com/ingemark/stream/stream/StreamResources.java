@@ -0,0 +1,71 @@
+package com.ingemark.stream.stream;
+
+import javax.servlet.ServletRequest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.stream.Stream;
+
+import static com.ingemark.stream.util.Util.logger;
+
+/**
+ * Tracks the resources, such as sessions and connections, which a request has opened
+ * for a {@code Stream} response.
+ * <p/>
+ * Resources are registered with the request while the handler method is being invoked.
+ * When the handler returns a stream, {@link #transferTo} hands them over to the stream,
+ * which then closes them when it is itself closed, that is, when the response has been
+ * written. Resources still registered once request processing is over, because the
+ * handler failed or did not return a stream, are closed by {@link #closeAll}, which
+ * {@link StreamResourcesInterceptor} calls as a safety net. Resources are closed in the
+ * reverse order of their registration.
+ */
+public final class StreamResources {
+    private static final String ATTRIBUTE = StreamResources.class.getName();
+
+    private StreamResources() {
+    }
+
+    public static void register(ServletRequest request, AutoCloseable resource) {
+        @SuppressWarnings("unchecked")
+        Deque<AutoCloseable> resources = (Deque<AutoCloseable>) request.getAttribute(ATTRIBUTE);
+        if (resources == null) {
+            resources = new ArrayDeque<>();
+            request.setAttribute(ATTRIBUTE, resources);
+        }
+        resources.push(resource);
+    }
+
+    /**
+     * Makes the given stream responsible for closing the resources registered with the
+     * request, after its own close handlers have run.
+     */
+    public static <T> Stream<T> transferTo(ServletRequest request, Stream<T> stream) {
+        final Deque<AutoCloseable> resources = remove(request);
+        return resources == null ? stream : stream.onClose(() -> close(resources));
+    }
+
+    /**
+     * Closes the resources still registered with the request.
+     */
+    public static void closeAll(ServletRequest request) {
+        final Deque<AutoCloseable> resources = remove(request);
+        if (resources != null) close(resources);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Deque<AutoCloseable> remove(ServletRequest request) {
+        final Deque<AutoCloseable> resources = (Deque<AutoCloseable>) request.getAttribute(ATTRIBUTE);
+        request.removeAttribute(ATTRIBUTE);
+        return resources;
+    }
+
+    private static void close(Deque<AutoCloseable> resources) {
+        for (AutoCloseable resource; (resource = resources.poll()) != null; ) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                logger.warn("Failed closing a stream resource", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.ingemark.stream.stream;
+
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Closes the {@link StreamResources} which were not handed over to a {@code Stream}
+ * response, for example because the handler method threw an exception.
+ */
+public class StreamResourcesInterceptor extends HandlerInterceptorAdapter {
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        StreamResources.closeAll(request);
+    }
+}
@@ -0,0 +1,155 @@
+package com.ingemark.stream.stream;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Immutable settings controlling how {@link JacksonStreamSerializer} writes a stream: the
+ * flush policy, whether the elements are enclosed in an array and whether a parallel
+ * stream is serialized in parallel.
+ * <p/>
+ * The flush policy bounds how much output may accumulate in the generator and the
+ * container's buffers before it is pushed to the client. A flush is triggered after an
+ * element is written once any of the enabled limits is reached: a number of elements, a
+ * number of bytes or a number of milliseconds since the last flush. A limit of zero
+ * disables it; with all limits disabled, flushing is left to the container.
+ * <p/>
+ * The millisecond limit is not a flush interval: like the others, it is only checked
+ * when an element has been written, at most once per element. While the source stalls
+ * between two elements, the output buffered so far stays unflushed until the next
+ * element arrives.
+ * <p/>
+ * The byte count is an approximation based on {@code JsonGenerator.getOutputBuffered()},
+ * which only covers the generator's own buffer. Since the generator drains that buffer
+ * into its target whenever it fills up, the count tracks the bytes written since the last
+ * flush to within one buffer per element.
+ * <p/>
+ * In NDJSON mode a stream written as the root value is not enclosed in an array; each
+ * element is written as a separate root value on its own line. Streams nested inside
+ * other values are always written as arrays.
+ * <p/>
+ * With a positive parallel batch size, a parallel stream is serialized in parallel: the
+ * writing thread splits the stream's spliterator into parts of about the batch size and
+ * hands them to the executor, which traverses each part and serializes its elements into
+ * a pooled byte buffer. Finished parts are written to the output in encounter order, and
+ * at most {@code parallelWindow} parts are in flight at any time, which bounds the memory
+ * spent on reordering. This only applies to JSON written to an {@code OutputStream}
+ * without a pretty printer or polymorphic type information; otherwise the stream is
+ * serialized sequentially.
+ */
+public final class StreamWriteConfig {
+    public static final StreamWriteConfig DEFAULT = new StreamWriteConfig(0, 0, 0, false,
+            0, 2 * Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+    private final int flushEveryElements;
+    private final int flushEveryBytes;
+    private final long flushEveryMillis;
+    private final boolean ndjson;
+    private final int parallelBatchSize;
+    private final int parallelWindow;
+    private final Executor executor;
+
+    private StreamWriteConfig(int flushEveryElements, int flushEveryBytes, long flushEveryMillis, boolean ndjson,
+                              int parallelBatchSize, int parallelWindow, Executor executor) {
+        if (flushEveryElements < 0) throw new IllegalArgumentException(
+                "Flush element count must not be negative, but was " + flushEveryElements);
+        if (flushEveryBytes < 0) throw new IllegalArgumentException(
+                "Flush byte count must not be negative, but was " + flushEveryBytes);
+        if (flushEveryMillis < 0) throw new IllegalArgumentException(
+                "Flush interval must not be negative, but was " + flushEveryMillis);
+        if (parallelBatchSize < 0) throw new IllegalArgumentException(
+                "Parallel batch size must not be negative, but was " + parallelBatchSize);
+        if (parallelWindow <= 0) throw new IllegalArgumentException(
+                "Parallel window must be positive, but was " + parallelWindow);
+        this.flushEveryElements = flushEveryElements;
+        this.flushEveryBytes = flushEveryBytes;
+        this.flushEveryMillis = flushEveryMillis;
+        this.ndjson = ndjson;
+        this.parallelBatchSize = parallelBatchSize;
+        this.parallelWindow = parallelWindow;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    public StreamWriteConfig withFlushEveryElements(int elements) {
+        return new StreamWriteConfig(elements, flushEveryBytes, flushEveryMillis, ndjson,
+                parallelBatchSize, parallelWindow, executor);
+    }
+
+    public StreamWriteConfig withFlushEveryBytes(int bytes) {
+        return new StreamWriteConfig(flushEveryElements, bytes, flushEveryMillis, ndjson,
+                parallelBatchSize, parallelWindow, executor);
+    }
+
+    /**
+     * Flushes after the element which is written once the given number of milliseconds
+     * have passed since the last flush; nothing is flushed without a written element.
+     */
+    public StreamWriteConfig withFlushEveryMillis(long millis) {
+        return new StreamWriteConfig(flushEveryElements, flushEveryBytes, millis, ndjson,
+                parallelBatchSize, parallelWindow, executor);
+    }
+
+    public StreamWriteConfig withNdjson(boolean ndjson) {
+        return new StreamWriteConfig(flushEveryElements, flushEveryBytes, flushEveryMillis, ndjson,
+                parallelBatchSize, parallelWindow, executor);
+    }
+
+    /**
+     * Enables parallel serialization of parallel streams in batches of the given size,
+     * with at most the given number of batches in flight. A batch size of zero disables it.
+     */
+    public StreamWriteConfig withParallelBatches(int batchSize, int window) {
+        return new StreamWriteConfig(flushEveryElements, flushEveryBytes, flushEveryMillis, ndjson,
+                batchSize, window, executor);
+    }
+
+    /**
+     * Sets the executor which traverses and serializes the parts of a parallel stream.
+     */
+    public StreamWriteConfig withExecutor(Executor executor) {
+        return new StreamWriteConfig(flushEveryElements, flushEveryBytes, flushEveryMillis, ndjson,
+                parallelBatchSize, parallelWindow, executor);
+    }
+
+    public int flushEveryElements() {
+        return flushEveryElements;
+    }
+
+    public int flushEveryBytes() {
+        return flushEveryBytes;
+    }
+
+    public long flushEveryMillis() {
+        return flushEveryMillis;
+    }
+
+    public boolean ndjson() {
+        return ndjson;
+    }
+
+    public int parallelBatchSize() {
+        return parallelBatchSize;
+    }
+
+    public int parallelWindow() {
+        return parallelWindow;
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Whether any flush limit is enabled.
+     */
+    public boolean flushes() {
+        return flushEveryElements > 0 || flushEveryBytes > 0 || flushEveryMillis > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamWriteConfig{flushEveryElements=" + flushEveryElements + ", flushEveryBytes=" + flushEveryBytes
+                + ", flushEveryMillis=" + flushEveryMillis + ", ndjson=" + ndjson
+                + ", parallelBatchSize=" + parallelBatchSize + ", parallelWindow=" + parallelWindow + '}';
+    }
+}
@@ -1,6 +1,7 @@
 package com.ingemark.stream.util;
 
 import java.util.Random;
+import java.util.stream.IntStream;
 
 public class RandomIntSource {
     private final int[] source;
@@ -11,6 +12,10 @@ public class RandomIntSource {
         this.source = rnd.ints(rnd.nextInt(10_000), 0, 10).toArray();
     }
 
+    public RandomIntSource(int[] source) {
+        this.source = source;
+    }
+
     public boolean hasNext() {
         return source.length > currentIdx;
     }
@@ -20,4 +25,8 @@ public class RandomIntSource {
 //        Util.uncheckRun(() -> Thread.sleep(20));
         return source[currentIdx++];
     }
+
+    public IntStream intStream() {
+        return SourceIntSpliterator.sourceStream(this);
+    }
 }
@@ -0,0 +1,31 @@
+package com.ingemark.stream.util;
+
+import com.ingemark.stream.spliterators.FixedBatchSpliteratorBase;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.util.stream.StreamSupport.intStream;
+
+public class SourceIntSpliterator extends FixedBatchSpliteratorBase.OfInt {
+    public static final int BATCH_SIZE = 100;
+    private final RandomIntSource s;
+
+    public SourceIntSpliterator(RandomIntSource s) {
+        super(NONNULL | IMMUTABLE, BATCH_SIZE);
+        this.s = s;
+    }
+
+    public static IntStream sourceStream(RandomIntSource s) {
+        return intStream(new SourceIntSpliterator(s), true);
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        if (s.hasNext()) {
+            action.accept(s.next());
+            return true;
+        }
+        return false;
+    }
+}